@@ -0,0 +1,274 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import osbench.Probe;
+
+/**
+ * Factories for the probes measured by {@code osbench.KernelBenchmarks}.
+ * Most probes boot the kernel with a parked process and then call the
+ * kernel from the benchmark thread as if it were that process. The context
+ * switch probe instead runs two real processes and needs a kernel of its
+ * own, which it gets since each benchmark runs in its own fork.
+ */
+public final class Probes {
+
+    private static final int PAGE_SIZE = MemoryLayout.getPageSize();
+    private static final int IO_SIZE = 4096;
+    private static final int FILE_BLOCKS = 256;
+
+    private static ParkedProcess process;
+
+    // Holds the CPU as the current process without ever yielding, so it stays the running PCB
+    private static final class ParkedProcess extends UserlandProcess {
+        @Override
+        public void main() {
+            while (true) {
+                stop();
+            }
+        }
+    }
+
+    private Probes() {
+    }
+
+    private static synchronized ParkedProcess boot() throws InterruptedException {
+        if (process == null) {
+            process = new ParkedProcess();
+            OS.startup(process);
+            while (OS.getPid() == -1) {
+                Thread.sleep(1);
+            }
+        }
+        return process;
+    }
+
+    private static void clearTlb() {
+        for (int[] entry : UserlandProcess.getTlb()) {
+            Arrays.fill(entry, -1);
+        }
+    }
+
+    /**
+     * Two processes yield to each other through the scheduler, and the
+     * benchmark thread counts one operation each time the second one runs:
+     * two switches per operation.
+     */
+    public static Probe contextSwitch() {
+        if (process != null) {
+            throw new IllegalStateException("The context switch probe needs a kernel of its own.");
+        }
+        Semaphore switched = new Semaphore(0);
+        PCB[] peers = new PCB[2];
+        OS.startup(new Yielder(peers, 0, null));
+        OS.createProcess(new Yielder(peers, 1, switched));
+        return () -> {
+            switched.acquire();
+            return 0;
+        };
+    }
+
+    // Yields straight to its peer on every turn, so each yield is a real switch
+    private static final class Yielder extends UserlandProcess {
+        private final PCB[] peers;
+        private final int index;
+        private final Semaphore switched;
+
+        Yielder(PCB[] peers, int index, Semaphore switched) {
+            this.peers = peers;
+            this.index = index;
+            this.switched = switched;
+        }
+
+        @Override
+        public void main() {
+            peers[index] = OS.getCurrentProcess();
+            while (true) {
+                if (switched != null) {
+                    switched.release();
+                }
+                PCB peer = peers[1 - index];
+                if (peer != null) {
+                    OS.switchProcess(peer);
+                } else {
+                    OS.switchProcess();
+                }
+            }
+        }
+    }
+
+    /**
+     * Traps into the kernel with a yield. The parked process is the only one
+     * runnable, so the scheduler picks it again and no switch takes place.
+     */
+    public static Probe syscallRoundTrip() throws Exception {
+        boot();
+        return () -> {
+            OS.switchProcess();
+            return 0;
+        };
+    }
+
+    public static Probe tlbHit() throws Exception {
+        ParkedProcess reader = boot();
+        int address = OS.AllocateMemory(PAGE_SIZE);
+        reader.Write(address, (byte) 1);
+        return new Probe() {
+            @Override
+            public long run() {
+                return reader.Read(address);
+            }
+
+            @Override
+            public void close() {
+                OS.FreeMemory(address, PAGE_SIZE);
+            }
+        };
+    }
+
+    /**
+     * Every read misses the TLB and is resolved through the kernel; the page itself stays resident.
+     */
+    public static Probe tlbMiss() throws Exception {
+        ParkedProcess reader = boot();
+        int address = OS.AllocateMemory(PAGE_SIZE);
+        reader.Write(address, (byte) 1);
+        return new Probe() {
+            @Override
+            public long run() {
+                clearTlb();
+                return reader.Read(address);
+            }
+
+            @Override
+            public void close() {
+                OS.FreeMemory(address, PAGE_SIZE);
+            }
+        };
+    }
+
+    /**
+     * Allocates a page, takes the minor fault on first touch, and frees it.
+     */
+    public static Probe pageFault() throws Exception {
+        ParkedProcess writer = boot();
+        return () -> {
+            int address = OS.AllocateMemory(PAGE_SIZE);
+            writer.Write(address, (byte) 1);
+            OS.FreeMemory(address, PAGE_SIZE);
+            return address;
+        };
+    }
+
+    /**
+     * Two pages share one free frame, so each touch evicts the other page
+     * and swaps the touched page back in.
+     */
+    public static Probe swapIn() throws Exception {
+        ParkedProcess toucher = boot();
+        int first = OS.AllocateMemory(PAGE_SIZE);
+        int second = OS.AllocateMemory(PAGE_SIZE);
+        toucher.Write(first, (byte) 1);
+
+        // Take every remaining frame away so faults must swap
+        boolean[] freeList = Kernel.getFreelist();
+        boolean[] stolen = new boolean[freeList.length];
+        for (int frame = 0; frame < freeList.length; frame++) {
+            stolen[frame] = freeList[frame];
+            freeList[frame] = false;
+        }
+
+        return new Probe() {
+            private int touches = 0;
+
+            @Override
+            public long run() {
+                clearTlb();
+                return toucher.Read((touches++ & 1) == 0 ? first : second);
+            }
+
+            @Override
+            public void close() {
+                for (int frame = 0; frame < stolen.length; frame++) {
+                    freeList[frame] |= stolen[frame];
+                }
+                OS.FreeMemory(first, PAGE_SIZE);
+                OS.FreeMemory(second, PAGE_SIZE);
+            }
+        };
+    }
+
+    /**
+     * Sends a small message to the running process and receives it back.
+     */
+    public static Probe messageRoundTrip() throws Exception {
+        boot();
+        int pid = OS.getPid();
+        byte[] payload = new byte[64];
+        return () -> {
+            OS.sendMessage(new KernelMessage(pid, pid, 1, payload));
+            return OS.waitForMessage().getWhat();
+        };
+    }
+
+    public static Probe fileRead() throws Exception {
+        return fileProbe(false);
+    }
+
+    public static Probe fileWrite() throws Exception {
+        return fileProbe(true);
+    }
+
+    // Positional 4KB reads or writes cycling over a 1MB file opened through the "file" device
+    private static Probe fileProbe(boolean write) throws Exception {
+        boot();
+        Path path = Files.createTempFile("kernel-bench", ".bin");
+        int fd = OS.open("file " + path);
+        ByteBuffer buffer = ByteBuffer.allocate(IO_SIZE);
+        for (int block = 0; block < FILE_BLOCKS; block++) {
+            OS.pwrite(fd, buffer.clear(), (long) block * IO_SIZE);
+        }
+        return new Probe() {
+            private int block = 0;
+
+            @Override
+            public long run() {
+                long position = (long) (block++ % FILE_BLOCKS) * IO_SIZE;
+                buffer.clear();
+                return write ? OS.pwrite(fd, buffer, position) : OS.pread(fd, buffer, position);
+            }
+
+            @Override
+            public void close() throws Exception {
+                OS.close(fd);
+                Files.deleteIfExists(path);
+            }
+        };
+    }
+
+    public static Probe randomRead() throws Exception {
+        return randomProbe("random 42");
+    }
+
+    public static Probe randomFastRead() throws Exception {
+        return randomProbe("random fast 42");
+    }
+
+    private static Probe randomProbe(String device) throws Exception {
+        boot();
+        int fd = OS.open(device);
+        ByteBuffer buffer = ByteBuffer.allocate(IO_SIZE);
+        return new Probe() {
+            @Override
+            public long run() {
+                return OS.read(fd, buffer.clear());
+            }
+
+            @Override
+            public void close() {
+                OS.close(fd);
+            }
+        };
+    }
+}
@@ -0,0 +1,61 @@
+package osbench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Latency of the kernel hot paths, one result row per probe.
+ * Each fork boots its own kernel, so probes do not disturb each other.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Dos.journal=benchmark.journal", "-Dos.fsImage=benchmark.img"})
+public class KernelBenchmarks {
+
+    @Param({
+            "contextSwitch",
+            "syscallRoundTrip",
+            "tlbHit",
+            "tlbMiss",
+            "pageFault",
+            "swapIn",
+            "messageRoundTrip",
+            "fileRead",
+            "fileWrite",
+            "randomRead",
+            "randomFastRead"
+    })
+    public String probe;
+
+    private Probe operation;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        operation = Probe.create(probe);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        operation.close();
+    }
+
+    @Benchmark
+    public long measure() throws Exception {
+        return operation.run();
+    }
+}
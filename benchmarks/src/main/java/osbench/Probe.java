@@ -0,0 +1,31 @@
+package osbench;
+
+import java.lang.reflect.Method;
+
+/**
+ * One measured kernel operation. Implementations live in the unnamed
+ * package next to the kernel classes (see {@code Probes}) and are looked up
+ * by name, since benchmark classes must be in a named package and cannot
+ * refer to unnamed-package types directly.
+ */
+public interface Probe extends AutoCloseable {
+
+    /**
+     * Performs the operation once.
+     *
+     * @return a value derived from the result, consumed by the benchmark
+     */
+    long run() throws Exception;
+
+    @Override
+    default void close() throws Exception {
+    }
+
+    /**
+     * Builds the probe returned by the static factory method {@code Probes.<name>()}.
+     */
+    static Probe create(String name) throws Exception {
+        Method factory = Class.forName("Probes").getMethod(name);
+        return (Probe) factory.invoke(null);
+    }
+}
@@ -6,11 +6,7 @@ public class BackgroundProcess extends UserlandProcess {
             System.out.println();
             System.out.println("BackgroundProcess starting...");
             System.out.println();
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            work(1000);
             OS.sleep(100);
             cooperate();
         }
@@ -0,0 +1,296 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-back cache of fixed-size file blocks shared by all file devices.
+ * Reads and writes are served from memory; dirty blocks reach the backing
+ * store on eviction, on an explicit flush (fsync) and periodically from a
+ * background flusher.
+ * <p>
+ * Blocks are keyed by the identity of the underlying file, so separately
+ * opened stores on the same file see the same data. The cache is split into
+ * segments with their own lock and LRU order, so I/O on one block does not
+ * hold up accesses that land in other segments.
+ */
+public class BlockCache {
+
+    /**
+     * Backing storage for one file, addressed by absolute byte position.
+     */
+    public interface BlockStore {
+        /**
+         * Fills the block from the store.
+         *
+         * @return bytes read, fewer than the block size at end of file
+         */
+        int readBlock(long position, byte[] block) throws IOException;
+
+        void writeBlock(long position, byte[] block, int length) throws IOException;
+
+        /**
+         * @return a value equal for every store on the same file, such as its normalized path
+         */
+        Object getIdentity();
+    }
+
+    public static final int BLOCK_SIZE = 4096;
+    private static final int DEFAULT_CAPACITY_BLOCKS = 1024;
+    private static final int SEGMENTS = 16;
+    private static final long FLUSH_INTERVAL_MILLIS = 5000;
+
+    private record Key(Object file, long blockNumber) {
+    }
+
+    private static final class Block {
+        final byte[] data = new byte[BLOCK_SIZE];
+        int length;
+        boolean dirty;
+        // The store that last touched the block, which is still open when the block is written back
+        BlockStore store;
+    }
+
+    private static final class Segment {
+        // Access-ordered so iteration starts at the least recently used block
+        final LinkedHashMap<Key, Block> blocks = new LinkedHashMap<>(64, 0.75f, true);
+    }
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacityBlocks;
+    private final int segmentCapacity;
+    private final ScheduledExecutorService flusher;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong writeBacks = new AtomicLong();
+
+    public BlockCache() {
+        this(DEFAULT_CAPACITY_BLOCKS);
+    }
+
+    public BlockCache(int capacityBlocks) {
+        this.capacityBlocks = capacityBlocks;
+        this.segmentCapacity = Math.max(1, (capacityBlocks + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment();
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "block-cache-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copies file data into the destination, loading missing blocks.
+     *
+     * @param store the file to read
+     * @param fileSize logical size of the file, including unflushed writes
+     * @param destination buffer filled from its position up to its limit
+     * @param position absolute byte offset in the file
+     * @return bytes read, or -1 if the position is at or past end of file
+     */
+    public int read(BlockStore store, long fileSize, ByteBuffer destination, long position)
+            throws IOException {
+        if (position >= fileSize) {
+            return destination.hasRemaining() ? -1 : 0;
+        }
+        int total = 0;
+        while (destination.hasRemaining() && position < fileSize) {
+            Key key = new Key(store.getIdentity(), position / BLOCK_SIZE);
+            int offset = (int) (position % BLOCK_SIZE);
+            int count = (int) Math.min(Math.min(destination.remaining(), BLOCK_SIZE - offset), fileSize - position);
+            Segment segment = segmentFor(key);
+            synchronized (segment) {
+                Block block = getBlock(segment, store, key, true);
+                if (offset + count > block.length) {
+                    // Gap inside the file that was never written reads as zeros
+                    block.length = offset + count;
+                }
+                destination.put(block.data, offset, count);
+            }
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Copies data into cached blocks and marks them dirty.
+     *
+     * @param store the file to write
+     * @param source buffer drained from its position up to its limit
+     * @param position absolute byte offset in the file
+     * @return bytes written
+     */
+    public int write(BlockStore store, ByteBuffer source, long position) throws IOException {
+        int total = 0;
+        while (source.hasRemaining()) {
+            Key key = new Key(store.getIdentity(), position / BLOCK_SIZE);
+            int offset = (int) (position % BLOCK_SIZE);
+            int count = Math.min(source.remaining(), BLOCK_SIZE - offset);
+            Segment segment = segmentFor(key);
+            synchronized (segment) {
+                // A write covering the whole block does not need the old contents
+                Block block = getBlock(segment, store, key, offset != 0 || count != BLOCK_SIZE);
+                source.get(block.data, offset, count);
+                block.length = Math.max(block.length, offset + count);
+                block.dirty = true;
+            }
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Writes back every dirty block of one file.
+     */
+    public void flush(BlockStore store) throws IOException {
+        Object file = store.getIdentity();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<Key, Block> entry : segment.blocks.entrySet()) {
+                    if (entry.getKey().file().equals(file)) {
+                        writeBack(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes back every dirty block. Errors are reported and the block stays dirty.
+     */
+    public void flushAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Map.Entry<Key, Block> entry : segment.blocks.entrySet()) {
+                    try {
+                        writeBack(entry.getKey(), entry.getValue());
+                    } catch (IOException e) {
+                        System.err.println("Block cache flush failed: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes back and drops every block of a file, e.g. when its last handle closes.
+     */
+    public void evict(BlockStore store) throws IOException {
+        Object file = store.getIdentity();
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                Iterator<Map.Entry<Key, Block>> iterator = segment.blocks.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<Key, Block> entry = iterator.next();
+                    if (entry.getKey().file().equals(file)) {
+                        writeBack(entry.getKey(), entry.getValue());
+                        iterator.remove();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flusher and writes back every dirty block.
+     */
+    public void close() {
+        flusher.shutdown();
+        flushAll();
+    }
+
+    public double getHitRate() {
+        long hitCount = hits.get();
+        long lookups = hitCount + misses.get();
+        return lookups == 0 ? 0.0 : (double) hitCount / lookups;
+    }
+
+    public int getCachedBlocks() {
+        int cached = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                cached += segment.blocks.size();
+            }
+        }
+        return cached;
+    }
+
+    public int getDirtyBlocks() {
+        int dirty = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                for (Block block : segment.blocks.values()) {
+                    if (block.dirty) {
+                        dirty++;
+                    }
+                }
+            }
+        }
+        return dirty;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockCache{blocks=%d/%d, dirty=%d, hits=%d, misses=%d, hitRate=%.2f, evictions=%d, writeBacks=%d}",
+                getCachedBlocks(), capacityBlocks, getDirtyBlocks(), hits.get(), misses.get(), getHitRate(),
+                evictions.get(), writeBacks.get());
+    }
+
+    private Segment segmentFor(Key key) {
+        return segments[Math.floorMod(key.hashCode(), SEGMENTS)];
+    }
+
+    // Callers hold the segment's lock
+    private Block getBlock(Segment segment, BlockStore store, Key key, boolean load) throws IOException {
+        Block block = segment.blocks.get(key);
+        if (block != null) {
+            hits.incrementAndGet();
+            block.store = store;
+            return block;
+        }
+        misses.incrementAndGet();
+        makeRoom(segment);
+        block = new Block();
+        block.store = store;
+        if (load) {
+            block.length = Math.max(0, store.readBlock(key.blockNumber() * BLOCK_SIZE, block.data));
+        }
+        segment.blocks.put(key, block);
+        return block;
+    }
+
+    private void makeRoom(Segment segment) throws IOException {
+        Iterator<Map.Entry<Key, Block>> iterator = segment.blocks.entrySet().iterator();
+        List<Map.Entry<Key, Block>> victims = new ArrayList<>();
+        while (segment.blocks.size() - victims.size() >= segmentCapacity && iterator.hasNext()) {
+            victims.add(iterator.next());
+        }
+        for (Map.Entry<Key, Block> victim : victims) {
+            writeBack(victim.getKey(), victim.getValue());
+            segment.blocks.remove(victim.getKey());
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void writeBack(Key key, Block block) throws IOException {
+        if (block.dirty) {
+            block.store.writeBlock(key.blockNumber() * BLOCK_SIZE, block.data, block.length);
+            block.dirty = false;
+            writeBacks.incrementAndGet();
+        }
+    }
+}
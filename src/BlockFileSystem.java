@@ -0,0 +1,724 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Self-contained filesystem stored in a single image file, opened as the
+ * {@code "fs"} device with a path such as {@code "fs /logs/today.txt"}.
+ * <p>
+ * Image layout, in blocks of {@link BlockCache#BLOCK_SIZE} bytes:
+ * a superblock, a free-space bitmap with one bit per block, the inode table,
+ * then data blocks. Each inode maps its data with up to {@link #MAX_EXTENTS}
+ * extents of contiguous blocks. Directories are files of fixed-size entries.
+ * All image access goes through the VFS block cache; {@link #Sync} makes it durable.
+ * <p>
+ * The image is {@code os.fsImage} (default {@code disk.img}), formatted on
+ * first use with {@code os.fsBlocks} blocks and {@code os.fsInodes} inodes.
+ * An existing non-empty file that is not an image is refused, never reformatted.
+ */
+public class BlockFileSystem implements Devices, PositionalDevices {
+
+    private static final int BLOCK_SIZE = BlockCache.BLOCK_SIZE;
+    private static final int MAGIC = 0x46534B31; // "FSK1"
+    private static final int VERSION = 1;
+    private static final int INODE_SIZE = 128;
+    private static final int MAX_EXTENTS = 12;
+    private static final int DIRENT_SIZE = 64;
+    private static final int MAX_NAME_BYTES = DIRENT_SIZE - 5;
+    private static final int ROOT_INODE = 1;
+    private static final int TYPE_FREE = 0;
+    private static final int TYPE_FILE = 1;
+    private static final int TYPE_DIRECTORY = 2;
+    private static final int INITIAL_FILES = 10;
+    private static final byte[] ZERO_BLOCK = new byte[BLOCK_SIZE];
+
+    private final Path imagePath;
+    private final int requestedBlocks;
+    private final int requestedInodes;
+
+    private Image image;
+    private int totalBlocks;
+    private int inodeCount;
+    private int bitmapStart;
+    private int inodeStart;
+    private int dataStart;
+    // In-memory copies of the on-disk metadata; every change is written through the block cache
+    private BitSet usedBlocks;
+    private Inode[] inodes;
+
+    private OpenFile[] files = new OpenFile[INITIAL_FILES];
+    // Open handles per inode, so a file cannot be unlinked while in use
+    private final Map<Integer, Integer> openCounts = new HashMap<>();
+
+    // The image file as seen by the block cache
+    private static class Image implements BlockCache.BlockStore {
+        final Path path;
+        final FileChannel channel;
+        final long size;
+
+        Image(Path path, FileChannel channel, long size) {
+            this.path = path;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        @Override
+        public Object getIdentity() {
+            return path;
+        }
+
+        @Override
+        public int readBlock(long position, byte[] block) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(block);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.position();
+        }
+
+        @Override
+        public void writeBlock(long position, byte[] block, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+
+    private static class Inode {
+        int type = TYPE_FREE;
+        int links = 0;
+        long size = 0;
+        int extentCount = 0;
+        // Pairs of (first block, block count)
+        final int[] extents = new int[MAX_EXTENTS * 2];
+
+        int allocatedBlocks() {
+            int blocks = 0;
+            for (int i = 0; i < extentCount; i++) {
+                blocks += extents[i * 2 + 1];
+            }
+            return blocks;
+        }
+
+        // Maps a block index within the file to its block number in the image
+        int physicalBlock(long logicalBlock) {
+            for (int i = 0; i < extentCount; i++) {
+                int length = extents[i * 2 + 1];
+                if (logicalBlock < length) {
+                    return extents[i * 2] + (int) logicalBlock;
+                }
+                logicalBlock -= length;
+            }
+            return -1;
+        }
+    }
+
+    private static class OpenFile {
+        final int inode;
+        long position = 0;
+
+        OpenFile(int inode) {
+            this.inode = inode;
+        }
+    }
+
+    public BlockFileSystem() {
+        this(Paths.get(System.getProperty("os.fsImage", "disk.img")),
+                Integer.getInteger("os.fsBlocks", 4096),
+                Integer.getInteger("os.fsInodes", 1024));
+    }
+
+    public BlockFileSystem(Path imagePath, int blocks, int inodes) {
+        this.imagePath = imagePath.toAbsolutePath().normalize();
+        this.requestedBlocks = blocks;
+        this.requestedInodes = inodes;
+    }
+
+    /**
+     * Opens a file by absolute path, creating it and any missing parent
+     * directories. The image is mounted, and formatted if needed, on first open.
+     *
+     * @param path path inside the filesystem, e.g. {@code /data/input.bin}
+     * @return the file ID
+     * @throws Exception if the path names a directory or the filesystem is full
+     */
+    @Override
+    public synchronized int Open(String path) throws Exception {
+        mount();
+        List<String> names = splitPath(path);
+        if (names.isEmpty()) {
+            throw new Exception("Cannot open the root directory as a file.");
+        }
+        int parent = resolveDirectory(names.subList(0, names.size() - 1), true);
+        String name = names.get(names.size() - 1);
+        int inode = lookup(parent, name);
+        if (inode == 0) {
+            inode = createEntry(parent, name, TYPE_FILE);
+        } else if (inodes[inode].type != TYPE_FILE) {
+            throw new Exception("Not a regular file: " + path);
+        }
+
+        openCounts.merge(inode, 1, Integer::sum);
+        OpenFile handle = new OpenFile(inode);
+        for (int index = 0; index < files.length; index++) {
+            if (files[index] == null) {
+                files[index] = handle;
+                return index;
+            }
+        }
+        int index = files.length;
+        files = Arrays.copyOf(files, index * 2);
+        files[index] = handle;
+        return index;
+    }
+
+    @Override
+    public synchronized void Close(int id) {
+        if (isValidFile(id)) {
+            openCounts.computeIfPresent(files[id].inode, (inode, count) -> count > 1 ? count - 1 : null);
+            files[id] = null;
+        }
+    }
+
+    @Override
+    public byte[] Read(int id, int size) {
+        if (size > 0) {
+            byte[] buffer = new byte[size];
+            int bytesRead = Read(id, ByteBuffer.wrap(buffer));
+            if (bytesRead > 0) {
+                return bytesRead == size ? buffer : Arrays.copyOf(buffer, bytesRead);
+            }
+        }
+        return new byte[0]; // Return empty array if read fails
+    }
+
+    @Override
+    public synchronized int Read(int id, ByteBuffer destination) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        OpenFile handle = files[id];
+        int bytesRead = ReadAt(id, destination, handle.position);
+        if (bytesRead > 0) {
+            handle.position += bytesRead;
+        }
+        return bytesRead;
+    }
+
+    @Override
+    public synchronized void Seek(int id, int to) {
+        if (isValidFile(id)) {
+            files[id].position = to;
+        }
+    }
+
+    @Override
+    public int Write(int id, byte[] data) {
+        if (data != null) {
+            return Math.max(0, Write(id, ByteBuffer.wrap(data)));
+        }
+        return 0;
+    }
+
+    @Override
+    public synchronized int Write(int id, ByteBuffer source) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        OpenFile handle = files[id];
+        int written = WriteAt(id, source, handle.position);
+        if (written > 0) {
+            handle.position += written;
+        }
+        return written;
+    }
+
+    /**
+     * Reads from an absolute position in the file without moving its offset.
+     *
+     * @return bytes read, or -1 at end of file or on error
+     */
+    @Override
+    public synchronized int ReadAt(int id, ByteBuffer destination, long position) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        try {
+            return readInode(files[id].inode, destination, position);
+        } catch (IOException e) {
+            System.err.println("Error reading from fs file at index " + id + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Writes at an absolute position in the file, allocating blocks as needed.
+     * A write that runs out of space is cut short.
+     *
+     * @return bytes written, or -1 if nothing could be written
+     */
+    @Override
+    public synchronized int WriteAt(int id, ByteBuffer source, long position) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        try {
+            return writeInode(files[id].inode, source, position);
+        } catch (IOException e) {
+            System.err.println("Error writing to fs file at index " + id + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Flushes every cached block of the image, data and metadata alike, and
+     * forces the image to stable storage.
+     */
+    @Override
+    public synchronized void Sync(int id) {
+        if (image == null) {
+            return;
+        }
+        try {
+            VFS.getBlockCache().flush(image);
+            image.channel.force(false);
+        } catch (IOException e) {
+            System.err.println("Error syncing fs image " + imagePath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a directory and any missing parents.
+     *
+     * @param path absolute directory path
+     * @throws Exception if a path component is a file or the filesystem is full
+     */
+    public synchronized void Mkdir(String path) throws Exception {
+        mount();
+        resolveDirectory(splitPath(path), true);
+    }
+
+    /**
+     * Lists a directory. Subdirectory names end in {@code /}.
+     *
+     * @param path absolute directory path
+     * @return entry names in directory order
+     * @throws Exception if the directory does not exist
+     */
+    public synchronized List<String> List(String path) throws Exception {
+        mount();
+        int directory = resolveDirectory(splitPath(path), false);
+        List<String> names = new ArrayList<>();
+        ByteBuffer entry = ByteBuffer.allocate(DIRENT_SIZE);
+        for (long offset = 0; offset < inodes[directory].size; offset += DIRENT_SIZE) {
+            entry.clear();
+            readInode(directory, entry, offset);
+            int inode = entry.getInt(0);
+            if (inode != 0) {
+                String name = new String(entry.array(), 5, entry.get(4), StandardCharsets.UTF_8);
+                names.add(inodes[inode].type == TYPE_DIRECTORY ? name + "/" : name);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Removes a file or an empty directory and frees its blocks.
+     *
+     * @param path absolute path of the entry to remove
+     * @return true if the entry was removed, false if it is open, missing or a non-empty directory
+     */
+    public synchronized boolean Unlink(String path) throws Exception {
+        mount();
+        List<String> names = splitPath(path);
+        if (names.isEmpty()) {
+            return false;
+        }
+        int parent;
+        try {
+            parent = resolveDirectory(names.subList(0, names.size() - 1), false);
+        } catch (Exception e) {
+            return false;
+        }
+        String name = names.get(names.size() - 1);
+        long offset = findEntry(parent, name);
+        if (offset < 0) {
+            return false;
+        }
+        int inode = readEntryInode(parent, offset);
+        if (openCounts.containsKey(inode) || (inodes[inode].type == TYPE_DIRECTORY && !List(path).isEmpty())) {
+            return false;
+        }
+        writeInode(parent, ByteBuffer.allocate(DIRENT_SIZE), offset);
+        freeInode(inode);
+        return true;
+    }
+
+    public synchronized int getFreeBlocks() {
+        return usedBlocks == null ? 0 : totalBlocks - usedBlocks.cardinality();
+    }
+
+    public synchronized int getFreeInodes() {
+        if (inodes == null) {
+            return 0;
+        }
+        int free = 0;
+        for (int i = ROOT_INODE; i <= inodeCount; i++) {
+            if (inodes[i].type == TYPE_FREE) {
+                free++;
+            }
+        }
+        return free;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("BlockFileSystem{image=%s, blocks=%d, freeBlocks=%d, inodes=%d, freeInodes=%d}",
+                imagePath, totalBlocks, getFreeBlocks(), inodeCount, getFreeInodes());
+    }
+
+    // ---- Mounting and formatting ----
+
+    private void mount() throws IOException {
+        if (image != null) {
+            return;
+        }
+        FileChannel channel = FileChannel.open(imagePath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // Only a new or empty file is formatted; anything else must already be an image
+            if (channel.size() == 0) {
+                format(channel);
+                return;
+            }
+            ByteBuffer superblock = ByteBuffer.allocate(BLOCK_SIZE);
+            readFully(channel, superblock, 0);
+            if (superblock.getInt(0) != MAGIC || superblock.getInt(4) != VERSION || superblock.getInt(8) != BLOCK_SIZE) {
+                throw new IOException("Not a filesystem image: " + imagePath);
+            }
+            load(channel, superblock);
+        } catch (IOException | RuntimeException e) {
+            image = null;
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void load(FileChannel channel, ByteBuffer superblock) throws IOException {
+        totalBlocks = superblock.getInt(12);
+        inodeCount = superblock.getInt(16);
+        bitmapStart = superblock.getInt(20);
+        inodeStart = superblock.getInt(28);
+        dataStart = superblock.getInt(36);
+        if (channel.size() < (long) totalBlocks * BLOCK_SIZE) {
+            throw new IOException("Filesystem image is truncated: " + imagePath);
+        }
+        image = new Image(imagePath, channel, (long) totalBlocks * BLOCK_SIZE);
+
+        ByteBuffer bitmap = ByteBuffer.allocate((totalBlocks + 7) / 8);
+        readFully(channel, bitmap, (long) bitmapStart * BLOCK_SIZE);
+        usedBlocks = BitSet.valueOf(bitmap.array());
+
+        ByteBuffer table = ByteBuffer.allocate(inodeCount * INODE_SIZE);
+        readFully(channel, table, (long) inodeStart * BLOCK_SIZE);
+        inodes = new Inode[inodeCount + 1];
+        for (int i = ROOT_INODE; i <= inodeCount; i++) {
+            inodes[i] = decodeInode(table, (i - ROOT_INODE) * INODE_SIZE);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Short read of filesystem metadata at " + position);
+            }
+        }
+    }
+
+    private void format(FileChannel channel) throws IOException {
+        totalBlocks = requestedBlocks;
+        inodeCount = requestedInodes;
+        int bitmapBlocks = ((totalBlocks + 7) / 8 + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int inodeBlocks = (inodeCount * INODE_SIZE + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        bitmapStart = 1;
+        inodeStart = bitmapStart + bitmapBlocks;
+        dataStart = inodeStart + inodeBlocks;
+        if (dataStart >= totalBlocks) {
+            throw new IOException("Image of " + totalBlocks + " blocks is too small for its metadata.");
+        }
+
+        channel.truncate(0);
+        channel.write(ByteBuffer.allocate(1), (long) totalBlocks * BLOCK_SIZE - 1);
+        image = new Image(imagePath, channel, (long) totalBlocks * BLOCK_SIZE);
+        usedBlocks = new BitSet(totalBlocks);
+        usedBlocks.set(0, dataStart);
+        inodes = new Inode[inodeCount + 1];
+        for (int i = ROOT_INODE; i <= inodeCount; i++) {
+            inodes[i] = new Inode();
+        }
+
+        ByteBuffer superblock = ByteBuffer.allocate(BLOCK_SIZE);
+        superblock.putInt(MAGIC).putInt(VERSION).putInt(BLOCK_SIZE).putInt(totalBlocks).putInt(inodeCount)
+                .putInt(bitmapStart).putInt(bitmapBlocks).putInt(inodeStart).putInt(inodeBlocks)
+                .putInt(dataStart).putInt(ROOT_INODE).flip();
+        VFS.getBlockCache().write(image, superblock, 0);
+        persistBitmap(0, dataStart - 1);
+
+        inodes[ROOT_INODE].type = TYPE_DIRECTORY;
+        inodes[ROOT_INODE].links = 1;
+        persistInode(ROOT_INODE);
+    }
+
+    // ---- Directories ----
+
+    private static List<String> splitPath(String path) {
+        List<String> names = new ArrayList<>();
+        if (path != null) {
+            for (String name : path.trim().split("/")) {
+                if (!name.isEmpty() && !name.equals(".")) {
+                    names.add(name);
+                }
+            }
+        }
+        return names;
+    }
+
+    private int resolveDirectory(List<String> names, boolean create) throws Exception {
+        int directory = ROOT_INODE;
+        for (String name : names) {
+            int child = lookup(directory, name);
+            if (child == 0) {
+                if (!create) {
+                    throw new Exception("No such directory: " + name);
+                }
+                child = createEntry(directory, name, TYPE_DIRECTORY);
+            } else if (inodes[child].type != TYPE_DIRECTORY) {
+                throw new Exception("Not a directory: " + name);
+            }
+            directory = child;
+        }
+        return directory;
+    }
+
+    private int lookup(int directory, String name) throws IOException {
+        long offset = findEntry(directory, name);
+        return offset < 0 ? 0 : readEntryInode(directory, offset);
+    }
+
+    // Returns the byte offset of the named entry in the directory, or -1
+    private long findEntry(int directory, String name) throws IOException {
+        byte[] wanted = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(DIRENT_SIZE);
+        for (long offset = 0; offset < inodes[directory].size; offset += DIRENT_SIZE) {
+            entry.clear();
+            readInode(directory, entry, offset);
+            if (entry.getInt(0) != 0 && entry.get(4) == wanted.length
+                    && Arrays.equals(entry.array(), 5, 5 + wanted.length, wanted, 0, wanted.length)) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    private int readEntryInode(int directory, long offset) throws IOException {
+        ByteBuffer number = ByteBuffer.allocate(4);
+        readInode(directory, number, offset);
+        return number.getInt(0);
+    }
+
+    private int createEntry(int directory, String name, int type) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_BYTES) {
+            throw new IOException("File name longer than " + MAX_NAME_BYTES + " bytes: " + name);
+        }
+        int inode = allocateInode(type);
+
+        // Reuse the first empty slot, or append
+        long slot = inodes[directory].size;
+        for (long offset = 0; offset < inodes[directory].size; offset += DIRENT_SIZE) {
+            if (readEntryInode(directory, offset) == 0) {
+                slot = offset;
+                break;
+            }
+        }
+        ByteBuffer entry = ByteBuffer.allocate(DIRENT_SIZE);
+        entry.putInt(inode).put((byte) nameBytes.length).put(nameBytes).clear();
+        if (writeInode(directory, entry, slot) < DIRENT_SIZE) {
+            freeInode(inode);
+            throw new IOException("Filesystem is full.");
+        }
+        return inode;
+    }
+
+    // ---- Inodes ----
+
+    private int allocateInode(int type) throws IOException {
+        for (int i = ROOT_INODE; i <= inodeCount; i++) {
+            if (inodes[i].type == TYPE_FREE) {
+                Inode inode = new Inode();
+                inode.type = type;
+                inode.links = 1;
+                inodes[i] = inode;
+                persistInode(i);
+                return i;
+            }
+        }
+        throw new IOException("No free inodes.");
+    }
+
+    private void freeInode(int number) throws IOException {
+        Inode inode = inodes[number];
+        for (int i = 0; i < inode.extentCount; i++) {
+            int start = inode.extents[i * 2];
+            int end = start + inode.extents[i * 2 + 1];
+            usedBlocks.clear(start, end);
+            persistBitmap(start, end - 1);
+        }
+        inodes[number] = new Inode();
+        persistInode(number);
+    }
+
+    private int readInode(int number, ByteBuffer destination, long position) throws IOException {
+        Inode inode = inodes[number];
+        if (position >= inode.size) {
+            return destination.hasRemaining() ? -1 : 0;
+        }
+        int total = 0;
+        BlockCache cache = VFS.getBlockCache();
+        while (destination.hasRemaining() && position < inode.size) {
+            int offset = (int) (position % BLOCK_SIZE);
+            int count = (int) Math.min(Math.min(destination.remaining(), BLOCK_SIZE - offset), inode.size - position);
+            long physical = (long) inode.physicalBlock(position / BLOCK_SIZE) * BLOCK_SIZE + offset;
+            ByteBuffer chunk = destination.slice().limit(count);
+            cache.read(image, image.size, chunk, physical);
+            destination.position(destination.position() + count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    private int writeInode(int number, ByteBuffer source, long position) throws IOException {
+        Inode inode = inodes[number];
+        long end = position + source.remaining();
+        long reachable = (long) ensureBlocks(number, (end + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+        int total = 0;
+        BlockCache cache = VFS.getBlockCache();
+        while (source.hasRemaining() && position < reachable) {
+            int offset = (int) (position % BLOCK_SIZE);
+            int count = (int) Math.min(Math.min(source.remaining(), BLOCK_SIZE - offset), reachable - position);
+            long physical = (long) inode.physicalBlock(position / BLOCK_SIZE) * BLOCK_SIZE + offset;
+            ByteBuffer chunk = source.slice().limit(count);
+            cache.write(image, chunk, physical);
+            source.position(source.position() + count);
+            position += count;
+            total += count;
+        }
+        if (position > inode.size) {
+            inode.size = position;
+            persistInode(number);
+        }
+        return total == 0 && source.hasRemaining() ? -1 : total;
+    }
+
+    /**
+     * Grows the inode to the requested number of blocks, extending its last
+     * extent in place when the following blocks are free. New blocks are zeroed.
+     *
+     * @return the number of blocks the inode now has, which may fall short when space runs out
+     */
+    private int ensureBlocks(int number, long wanted) throws IOException {
+        Inode inode = inodes[number];
+        int allocated = inode.allocatedBlocks();
+        boolean changed = false;
+        while (allocated < wanted) {
+            int last = inode.extentCount - 1;
+            int hint = last >= 0 ? inode.extents[last * 2] + inode.extents[last * 2 + 1] : dataStart;
+            int start = usedBlocks.nextClearBit(hint);
+            if (start >= totalBlocks) {
+                start = usedBlocks.nextClearBit(dataStart);
+            }
+            if (start >= totalBlocks) {
+                break; // Out of space
+            }
+            boolean extendsLast = last >= 0 && start == hint;
+            if (!extendsLast && inode.extentCount == MAX_EXTENTS) {
+                break; // Too fragmented for the inode's extent list
+            }
+            int nextUsed = usedBlocks.nextSetBit(start);
+            int runEnd = (int) Math.min(nextUsed < 0 ? totalBlocks : nextUsed, start + (wanted - allocated));
+            runEnd = Math.min(runEnd, totalBlocks);
+            int length = runEnd - start;
+
+            usedBlocks.set(start, runEnd);
+            persistBitmap(start, runEnd - 1);
+            for (int block = start; block < runEnd; block++) {
+                VFS.getBlockCache().write(image, ByteBuffer.wrap(ZERO_BLOCK), (long) block * BLOCK_SIZE);
+            }
+            if (extendsLast) {
+                inode.extents[last * 2 + 1] += length;
+            } else {
+                inode.extents[inode.extentCount * 2] = start;
+                inode.extents[inode.extentCount * 2 + 1] = length;
+                inode.extentCount++;
+            }
+            allocated += length;
+            changed = true;
+        }
+        if (changed) {
+            persistInode(number);
+        }
+        return allocated;
+    }
+
+    private static Inode decodeInode(ByteBuffer table, int offset) {
+        Inode inode = new Inode();
+        inode.type = table.getInt(offset);
+        inode.links = table.getInt(offset + 4);
+        inode.size = table.getLong(offset + 8);
+        inode.extentCount = Math.min(table.getInt(offset + 16), MAX_EXTENTS);
+        for (int i = 0; i < MAX_EXTENTS * 2; i++) {
+            inode.extents[i] = table.getInt(offset + 20 + i * 4);
+        }
+        return inode;
+    }
+
+    private void persistInode(int number) throws IOException {
+        Inode inode = inodes[number];
+        ByteBuffer record = ByteBuffer.allocate(INODE_SIZE);
+        record.putInt(inode.type).putInt(inode.links).putLong(inode.size).putInt(inode.extentCount);
+        for (int value : inode.extents) {
+            record.putInt(value);
+        }
+        record.clear();
+        VFS.getBlockCache().write(image, record, (long) inodeStart * BLOCK_SIZE + (long) (number - ROOT_INODE) * INODE_SIZE);
+    }
+
+    // Writes the bitmap bytes covering the given inclusive block range
+    private void persistBitmap(int firstBlock, int lastBlock) throws IOException {
+        int firstByte = firstBlock / 8;
+        int lastByte = lastBlock / 8;
+        byte[] bits = usedBlocks.get(firstByte * 8, (lastByte + 1) * 8).toByteArray();
+        ByteBuffer range = ByteBuffer.allocate(lastByte - firstByte + 1);
+        range.put(bits).clear();
+        VFS.getBlockCache().write(image, range, (long) bitmapStart * BLOCK_SIZE + firstByte);
+    }
+
+    private boolean isValidFile(int id) {
+        return id >= 0 && id < files.length && files[id] != null;
+    }
+}
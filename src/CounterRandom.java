@@ -0,0 +1,104 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Counter-based random byte stream. Word {@code n} of the stream is the
+ * SplitMix64 finalizer applied to {@code seed + (n + 1) * GAMMA}, so any
+ * offset can be reached in constant time and the same seed always yields
+ * the same bytes at the same offset.
+ * Not thread-safe; each open device handle owns its own stream.
+ */
+public class CounterRandom {
+
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+    // Absolute byte offset of the next byte to produce
+    private long position = 0;
+
+    public CounterRandom(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * Moves the stream to an absolute byte offset in constant time.
+     *
+     * @param position byte offset, must not be negative
+     */
+    public void seek(long position) {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative stream position: " + position);
+        }
+        this.position = position;
+    }
+
+    /**
+     * Fills the buffer from its position up to its limit and advances the stream.
+     * Whole words are written eight bytes at a time, low byte first.
+     *
+     * @param destination buffer to fill
+     * @return number of bytes written
+     */
+    public int fill(ByteBuffer destination) {
+        int count = destination.remaining();
+        long word = position >>> 3;
+        int skip = (int) (position & 7);
+        int remaining = count;
+
+        // Finish the word a previous read stopped inside of
+        if (skip != 0 && remaining > 0) {
+            long value = wordAt(word++) >>> (skip * 8);
+            for (int n = Math.min(8 - skip, remaining); n > 0; n--, remaining--, value >>>= 8) {
+                destination.put((byte) value);
+            }
+        }
+
+        ByteBuffer view = destination.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        for (; remaining >= 8; remaining -= 8) {
+            view.putLong(wordAt(word++));
+        }
+        destination.position(view.position());
+
+        if (remaining > 0) {
+            long value = wordAt(word);
+            for (; remaining > 0; remaining--, value >>>= 8) {
+                destination.put((byte) value);
+            }
+        }
+
+        position += count;
+        return count;
+    }
+
+    /**
+     * Returns the next eight bytes of the stream as a little-endian long.
+     */
+    public long nextLong() {
+        if ((position & 7) == 0) {
+            long value = wordAt(position >>> 3);
+            position += 8;
+            return value;
+        }
+        byte[] bytes = new byte[8];
+        fill(ByteBuffer.wrap(bytes));
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    private long wordAt(long index) {
+        return mix(seed + (index + 1) * GAMMA);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,26 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Burns a fixed amount of CPU per operation.
+ */
+public class CpuWorkload extends WorkloadProcess {
+
+    private static final int ROUNDS = 20_000;
+    private long state;
+
+    public CpuWorkload(int ratePerSecond, long deadlineNanos, CountDownLatch finished, long seed) {
+        super("cpu", ratePerSecond, deadlineNanos, finished);
+        this.state = seed | 1;
+    }
+
+    @Override
+    protected void operate() {
+        long x = state;
+        for (int i = 0; i < ROUNDS; i++) {
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+        }
+        state = x;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * Service interface for device drivers discovered with {@link java.util.ServiceLoader}.
+ * Implementations are listed in {@code META-INF/services/DeviceDriverProvider}
+ * and contribute one shared driver instance for their device type.
+ */
+public interface DeviceDriverProvider {
+    /**
+     * @return the device type name used in {@code VFS.Open}, e.g. {@code "random"}
+     */
+    String getType();
+
+    /**
+     * @return the driver instance shared by every open of this device type
+     */
+    Devices create();
+}
@@ -1,4 +1,4 @@
-import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
 
 public interface Devices {
     int Open(String s) throws Exception;
@@ -7,6 +7,91 @@ public interface Devices {
     void Seek(int id,int to);
     int Write(int id, byte[] data);
 
+    /**
+     * Reports whether a read would return data without blocking.
+     * Devices that never block are always readable.
+     */
+    default boolean IsReadable(int id) {
+        return true;
+    }
+
+    /**
+     * Forces buffered writes for the handle to stable storage.
+     * Devices that do not buffer have nothing to do.
+     */
+    default void Sync(int id) {
+    }
+
+    /**
+     * Reads into a caller-supplied buffer, filling it from its position up to its limit.
+     * Drivers should override this to avoid allocating; the default adapts the array API.
+     *
+     * @return bytes read, or -1 if no data is available at end of stream or on error
+     */
+    default int Read(int id, ByteBuffer destination) {
+        byte[] data = Read(id, destination.remaining());
+        if (data == null || data.length == 0) {
+            return destination.hasRemaining() ? -1 : 0;
+        }
+        int count = Math.min(data.length, destination.remaining());
+        destination.put(data, 0, count);
+        return count;
+    }
+
+    /**
+     * Writes from a caller-supplied buffer, draining it from its position up to its limit.
+     * Drivers should override this to avoid allocating; the default adapts the array API.
+     *
+     * @return bytes written, or -1 on error
+     */
+    default int Write(int id, ByteBuffer source) {
+        byte[] data = new byte[source.remaining()];
+        source.get(data);
+        return Write(id, data);
+    }
+
+    /**
+     * Scatter read: fills the buffers in order, stopping early on a short read.
+     *
+     * @return total bytes read, or -1 if the first read hit end of stream
+     */
+    default long ReadV(int id, ByteBuffer[] destinations) {
+        long total = 0;
+        for (ByteBuffer destination : destinations) {
+            int wanted = destination.remaining();
+            int count = Read(id, destination);
+            if (count < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += count;
+            if (count < wanted) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Gather write: drains the buffers in order, stopping early on a short write.
+     *
+     * @return total bytes written, or -1 if the first write failed
+     */
+    default long WriteV(int id, ByteBuffer[] sources) {
+        long total = 0;
+        for (ByteBuffer source : sources) {
+            int wanted = source.remaining();
+            int count = Write(id, source);
+            if (count < 0) {
+                return total == 0 ? -1 : total;
+            }
+            total += count;
+            if (count < wanted) {
+                break;
+            }
+        }
+        return total;
+    }
+
 }
 
 
@@ -0,0 +1,52 @@
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one shared driver instance per device type.
+ * Built-in drivers are registered up front; further drivers can be added
+ * with {@link #register} or discovered through {@link DeviceDriverProvider}.
+ */
+public final class DriverRegistry {
+
+    private static final Map<String, Devices> drivers = new ConcurrentHashMap<>();
+
+    static {
+        register("random", new RandomDevice());
+        register("file", new FakeFileSystem());
+        register("pipe", new PipeDevice());
+        register("fs", new BlockFileSystem());
+        for (DeviceDriverProvider provider : ServiceLoader.load(DeviceDriverProvider.class)) {
+            register(provider.getType(), provider.create());
+        }
+    }
+
+    private DriverRegistry() {
+    }
+
+    /**
+     * Registers or replaces the driver for a device type.
+     *
+     * @param type the device type name, matched case-insensitively
+     * @param driver the shared driver instance
+     */
+    public static void register(String type, Devices driver) {
+        drivers.put(type.toLowerCase(), driver);
+    }
+
+    /**
+     * @return every registered driver keyed by device type, sorted by type
+     */
+    public static Map<String, Devices> getDrivers() {
+        return new TreeMap<>(drivers);
+    }
+
+    /**
+     * @param type the device type name
+     * @return the shared driver, or null if the type is unknown
+     */
+    public static Devices get(String type) {
+        return drivers.get(type.toLowerCase());
+    }
+}
@@ -1,76 +1,372 @@
-import java.io.RandomAccessFile;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class FakeFileSystem implements Devices {
+public class FakeFileSystem implements Devices, PositionalDevices {
 
-    private static final int MAX_FILES = 10;
-    private RandomAccessFile[] files = new RandomAccessFile[MAX_FILES];
+    private static final int INITIAL_FILES = 10;
+    // Grows as needed, since one instance is shared by every process opening files
+    private volatile OpenFile[] files = new OpenFile[INITIAL_FILES];
+    // One channel per host file, shared by every handle open on it
+    private final Map<Path, SharedFile> sharedFiles = new HashMap<>();
+    private static final Map<Path, Journal> journals = new HashMap<>();
+    // Write-ahead log making writes durable before they reach the block cache; null when disabled
+    private final Journal journal;
+    // Writes hold the read side between logging and caching; a checkpoint takes the write side
+    private static final ReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+    // Journaled instances with open files, since a checkpoint must sync all files written through the shared log.
+    // An instance leaves when its last file closes, so discarded instances are not kept alive.
+    private static final List<FakeFileSystem> journaledInstances = new CopyOnWriteArrayList<>();
 
-    public int Open(String filename) throws Exception {
+    // A host file and the number of handles open on it; its blocks are cached by the VFS
+    private static class SharedFile implements BlockCache.BlockStore {
+        final Path path;
+        final FileChannel channel;
+        int openCount = 0;
+        // Logical size including writes still sitting in the block cache
+        volatile long size;
+
+        SharedFile(Path path) throws IOException {
+            this.path = path;
+            this.channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        @Override
+        public Object getIdentity() {
+            return path;
+        }
+
+        @Override
+        public int readBlock(long position, byte[] block) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(block);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            return buffer.position();
+        }
+
+        @Override
+        public void writeBlock(long position, byte[] block, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(block, 0, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+    }
+
+    // A handle with its own file offset; positional I/O never touches the offset
+    private static class OpenFile {
+        final SharedFile file;
+        long position = 0;
+
+        OpenFile(SharedFile file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Journals writes to {@code os.journal} if it is set, replaying any writes
+     * left in it by a crash. Journaling is off by default.
+     */
+    public FakeFileSystem() {
+        this(openJournal(System.getProperty("os.journal", "none")));
+    }
+
+    public FakeFileSystem(Journal journal) {
+        this.journal = journal;
+    }
+
+    // Instances journaling to the same log share it, so it is recovered once and never written from two places
+    private static synchronized Journal openJournal(String path) {
+        if (path.isEmpty() || path.equals("none")) {
+            return null;
+        }
+        Path logPath = Paths.get(path).toAbsolutePath().normalize();
+        Journal journal = journals.get(logPath);
+        if (journal != null) {
+            return journal;
+        }
+        try {
+            journal = new Journal(logPath);
+            int replayed = journal.recover();
+            if (replayed > 0) {
+                System.out.println("Journal recovery replayed " + replayed + " writes.");
+            }
+            journals.put(logPath, journal);
+            return journal;
+        } catch (IOException e) {
+            System.err.println("Journaling disabled, cannot open " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public synchronized int Open(String filename) throws Exception {
         if (filename == null || filename.trim().isEmpty()) {
             throw new Exception("Filename cannot be null or empty.");
         }
 
-        for (int index = 0; index < MAX_FILES; index++) {
+        Path path = Paths.get(filename).toAbsolutePath().normalize();
+        SharedFile shared = sharedFiles.get(path);
+        if (shared == null) {
+            shared = new SharedFile(path);
+            if (sharedFiles.isEmpty() && journal != null) {
+                journaledInstances.add(this);
+            }
+            sharedFiles.put(path, shared);
+        }
+        shared.openCount++;
+        OpenFile handle = new OpenFile(shared);
+
+        for (int index = 0; index < files.length; index++) {
             if (files[index] == null) {
-                files[index] = new RandomAccessFile(filename, "rw");
+                files[index] = handle;
                 return index;
             }
         }
-        return -1; // No available slot
+        int index = files.length;
+        OpenFile[] grown = Arrays.copyOf(files, index * 2);
+        grown[index] = handle;
+        files = grown;
+        return index;
     }
 
     @Override
-    public void Close(int id) {
+    public synchronized void Close(int id) {
         if (isValidFile(id)) {
-            try {
-                files[id].close();
-            } catch (IOException e) {
-                System.err.println("Error closing file at index " + id + ": " + e.getMessage());
-            } finally {
-                files[id] = null;
+            SharedFile shared = files[id].file;
+            files[id] = null;
+            if (--shared.openCount == 0) {
+                sharedFiles.remove(shared.path);
+                if (sharedFiles.isEmpty()) {
+                    journaledInstances.remove(this);
+                }
+                try {
+                    VFS.getBlockCache().evict(shared);
+                    if (journal != null) {
+                        // The journal may be checkpointed without this file once it is closed
+                        shared.channel.force(false);
+                    }
+                    shared.channel.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing file at index " + id + ": " + e.getMessage());
+                }
             }
         }
     }
 
     @Override
     public byte[] Read(int id, int size) {
-        if (isValidFile(id) && size > 0) {
-            try {
-                byte[] buffer = new byte[size];
-                int bytesRead = files[id].read(buffer);
-                if (bytesRead > 0) {
-                    return buffer;
-                }
-            } catch (IOException e) {
-                System.err.println("Error reading from file at index " + id + ": " + e.getMessage());
+        if (size > 0) {
+            byte[] buffer = new byte[size];
+            int bytesRead = Read(id, ByteBuffer.wrap(buffer));
+            if (bytesRead == size) {
+                return buffer;
+            }
+            if (bytesRead > 0) {
+                return Arrays.copyOf(buffer, bytesRead); // Short read near end of file
             }
         }
         return new byte[0]; // Return empty array if read fails
     }
 
+    @Override
+    public int Read(int id, ByteBuffer destination) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        OpenFile handle = files[id];
+        synchronized (handle) {
+            int bytesRead = ReadAt(id, destination, handle.position);
+            if (bytesRead > 0) {
+                handle.position += bytesRead;
+            }
+            return bytesRead;
+        }
+    }
+
+    @Override
+    public long ReadV(int id, ByteBuffer[] destinations) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        // Holding the handle keeps the scattered read contiguous in the file
+        synchronized (files[id]) {
+            return Devices.super.ReadV(id, destinations);
+        }
+    }
+
     @Override
     public void Seek(int id, int to) {
         if (isValidFile(id)) {
-            try {
-                files[id].seek(to);
-            } catch (IOException e) {
-                System.err.println("Error seeking file at index " + id + ": " + e.getMessage());
+            OpenFile handle = files[id];
+            synchronized (handle) {
+                handle.position = to;
             }
         }
     }
 
     @Override
     public int Write(int id, byte[] data) {
-        if (isValidFile(id) && data != null) {
+        if (data != null) {
+            return Math.max(0, Write(id, ByteBuffer.wrap(data)));
+        }
+        return 0;
+    }
+
+    @Override
+    public int Write(int id, ByteBuffer source) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        OpenFile handle = files[id];
+        synchronized (handle) {
+            int written = WriteAt(id, source, handle.position);
+            if (written > 0) {
+                handle.position += written;
+            }
+            return written;
+        }
+    }
+
+    @Override
+    public long WriteV(int id, ByteBuffer[] sources) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        // Holding the handle keeps the gathered write contiguous in the file
+        synchronized (files[id]) {
+            return Devices.super.WriteV(id, sources);
+        }
+    }
+
+    /**
+     * Reads from an absolute file position without using or moving the
+     * handle's offset, so several processes can read one file without
+     * sharing a seek pointer. Data is served through the VFS block cache.
+     *
+     * @param id The file ID to read from
+     * @param destination buffer filled from its position up to its limit
+     * @param position absolute byte offset in the file
+     * @return bytes read, or -1 at end of file or on error
+     */
+    @Override
+    public int ReadAt(int id, ByteBuffer destination, long position) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        SharedFile shared = files[id].file;
+        try {
+            return VFS.getBlockCache().read(shared, shared.size, destination, position);
+        } catch (IOException e) {
+            System.err.println("Error reading from file at index " + id + ": " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Writes at an absolute file position without using or moving the handle's offset.
+     * With journaling on, the write is durable in the journal before this returns.
+     *
+     * @param id The file ID to write to
+     * @param source buffer drained from its position up to its limit
+     * @param position absolute byte offset in the file
+     * @return bytes written, or -1 on error
+     */
+    @Override
+    public int WriteAt(int id, ByteBuffer source, long position) {
+        if (!isValidFile(id)) {
+            return -1;
+        }
+        SharedFile shared = files[id].file;
+        int written;
+        checkpointLock.readLock().lock();
+        try {
+            if (journal != null) {
+                journal.commit(shared.path, position, source);
+            }
+            written = VFS.getBlockCache().write(shared, source, position);
+            synchronized (shared) {
+                shared.size = Math.max(shared.size, position + written);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to file at index " + id + ": " + e.getMessage());
+            return -1;
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+        if (journal != null && journal.needsCheckpoint()) {
+            checkpoint();
+        }
+        return written;
+    }
+
+    /**
+     * Syncs every open file of every instance sharing the journal, then
+     * empties it. Closed files were already forced when their last handle closed.
+     * Skipped while a write is in progress; the next write past the threshold retries.
+     */
+    public void checkpoint() {
+        if (journal == null) {
+            return;
+        }
+        // A writer waiting on the journal may be descheduled holding the read side, so never wait for it here
+        if (!checkpointLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            for (FakeFileSystem instance : journaledInstances) {
+                if (instance.journal != journal) {
+                    continue;
+                }
+                synchronized (instance) {
+                    for (SharedFile shared : instance.sharedFiles.values()) {
+                        VFS.getBlockCache().flush(shared);
+                        shared.channel.force(false);
+                    }
+                }
+            }
+            journal.truncate();
+        } catch (IOException e) {
+            System.err.println("Journal checkpoint failed: " + e.getMessage());
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Flushes cached writes for the file and forces them to stable storage.
+     *
+     * @param id The file ID to sync
+     */
+    @Override
+    public void Sync(int id) {
+        if (isValidFile(id)) {
+            SharedFile shared = files[id].file;
             try {
-                files[id].write(data);
-                return data.length;
+                VFS.getBlockCache().flush(shared);
+                shared.channel.force(false);
             } catch (IOException e) {
-                System.err.println("Error writing to file at index " + id + ": " + e.getMessage());
+                System.err.println("Error syncing file at index " + id + ": " + e.getMessage());
             }
         }
-        return 0;
     }
 
     /**
@@ -80,6 +376,7 @@ public class FakeFileSystem implements Devices {
      * @return true if the ID is valid and the file is open
      */
     private boolean isValidFile(int id) {
-        return id >= 0 && id < MAX_FILES && files[id] != null;
+        OpenFile[] table = files;
+        return id >= 0 && id < table.length && table[id] != null;
     }
 }
@@ -0,0 +1,185 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-process table mapping descriptors to open devices. Descriptors are
+ * handed out from a stack of free slots, so opening and closing are constant
+ * time however many handles a process holds, and the table grows on demand.
+ * <p>
+ * Each entry caches the driver and driver-local id resolved at open, so reads
+ * and writes skip the VFS lookup. Entries are reference counted: {@link #dup}
+ * and {@link #inheritFrom} share an entry, and the device is closed only when
+ * its last descriptor goes away.
+ */
+public class FileDescriptorTable {
+
+    private static final int INITIAL_DESCRIPTORS = 16;
+
+    /**
+     * An open device shared by every descriptor duplicated from it.
+     */
+    public static final class Descriptor {
+        final int vfsId;
+        final Devices devices;
+        final int deviceId;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Descriptor(int vfsId, Devices devices, int deviceId) {
+            this.vfsId = vfsId;
+            this.devices = devices;
+            this.deviceId = deviceId;
+        }
+
+        public int getVfsId() {
+            return vfsId;
+        }
+
+        public Devices getDevices() {
+            return devices;
+        }
+
+        public int getDeviceId() {
+            return deviceId;
+        }
+
+        /**
+         * Takes a reference that is not tied to a descriptor, as a memory
+         * mapping does, so the device stays open after its descriptors close.
+         */
+        public void retain() {
+            references.incrementAndGet();
+        }
+
+        /**
+         * Drops a reference taken with {@link #retain}.
+         *
+         * @return true if it was the last one and the device should be closed
+         */
+        public boolean releaseReference() {
+            return references.decrementAndGet() == 0;
+        }
+    }
+
+    private Descriptor[] descriptors = new Descriptor[INITIAL_DESCRIPTORS];
+    // Stack of released descriptors, reused before the table grows
+    private int[] freeSlots = new int[INITIAL_DESCRIPTORS];
+    private int freeCount = 0;
+    private int highWaterMark = 0;
+    private int openCount = 0;
+
+    /**
+     * Installs a freshly opened device.
+     *
+     * @return the new descriptor
+     */
+    public synchronized int install(int vfsId, Devices devices, int deviceId) {
+        return place(new Descriptor(vfsId, devices, deviceId));
+    }
+
+    /**
+     * @return the entry for the descriptor, or null if it is not open
+     */
+    public synchronized Descriptor get(int fd) {
+        return fd >= 0 && fd < highWaterMark ? descriptors[fd] : null;
+    }
+
+    /**
+     * Creates a second descriptor sharing the same open device.
+     *
+     * @return the new descriptor, or -1 if {@code fd} is not open
+     */
+    public synchronized int dup(int fd) {
+        Descriptor descriptor = get(fd);
+        if (descriptor == null) {
+            return -1;
+        }
+        descriptor.references.incrementAndGet();
+        return place(descriptor);
+    }
+
+    /**
+     * Frees a descriptor.
+     *
+     * @return the entry if this was its last reference and the device should be closed, otherwise null
+     */
+    public synchronized Descriptor release(int fd) {
+        Descriptor descriptor = get(fd);
+        if (descriptor == null) {
+            return null;
+        }
+        descriptors[fd] = null;
+        freeSlots[freeCount++] = fd;
+        openCount--;
+        return descriptor.references.decrementAndGet() == 0 ? descriptor : null;
+    }
+
+    /**
+     * Frees every descriptor, as when the process exits.
+     *
+     * @return the entries whose devices should now be closed
+     */
+    public synchronized List<Descriptor> releaseAll() {
+        List<Descriptor> closable = new ArrayList<>();
+        for (int fd = 0; fd < highWaterMark; fd++) {
+            Descriptor descriptor = release(fd);
+            if (descriptor != null) {
+                closable.add(descriptor);
+            }
+        }
+        return closable;
+    }
+
+    /**
+     * Gives this table a descriptor for every device open in the parent, at
+     * the same descriptor numbers. Must be called on an empty table.
+     */
+    public void inheritFrom(FileDescriptorTable parent) {
+        Descriptor[] inherited;
+        synchronized (parent) {
+            inherited = Arrays.copyOf(parent.descriptors, parent.highWaterMark);
+            for (Descriptor descriptor : inherited) {
+                if (descriptor != null) {
+                    descriptor.references.incrementAndGet();
+                }
+            }
+        }
+        synchronized (this) {
+            if (openCount != 0) {
+                throw new IllegalStateException("Descriptors can only be inherited into an empty table.");
+            }
+            descriptors = Arrays.copyOf(inherited, Math.max(INITIAL_DESCRIPTORS, inherited.length));
+            freeSlots = new int[descriptors.length];
+            freeCount = 0;
+            highWaterMark = inherited.length;
+            for (int fd = highWaterMark - 1; fd >= 0; fd--) {
+                if (descriptors[fd] == null) {
+                    freeSlots[freeCount++] = fd;
+                } else {
+                    openCount++;
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return openCount;
+    }
+
+    private int place(Descriptor descriptor) {
+        int fd;
+        if (freeCount > 0) {
+            fd = freeSlots[--freeCount];
+        } else {
+            if (highWaterMark == descriptors.length) {
+                descriptors = Arrays.copyOf(descriptors, descriptors.length * 2);
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            fd = highWaterMark++;
+        }
+        descriptors[fd] = descriptor;
+        openCount++;
+        return fd;
+    }
+}
@@ -4,11 +4,7 @@ public class GoodbyeWorld extends UserlandProcess {
         while (true) {
             System.out.println("Goodbye world");
             OS.sleep(50);
-            try {
-                Thread.sleep(50); // To prevent flooding the console too quickly
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            work(50); // To prevent flooding the console too quickly
             cooperate();
         }
     }
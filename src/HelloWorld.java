@@ -5,11 +5,7 @@ public class HelloWorld extends UserlandProcess {
             System.out.println("Hello World");
             OS.sleep(100);
 
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            work(50);
             cooperate();
         }
     }
@@ -3,11 +3,7 @@ public class IdleProcess extends UserlandProcess {
     public void main() {
         while (true) {
             cooperate();
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            work(50);
         }
     }
 }
\ No newline at end of file
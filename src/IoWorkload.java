@@ -0,0 +1,52 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Alternates 4KB positional writes and reads at random offsets in a private 1MB file.
+ */
+public class IoWorkload extends WorkloadProcess {
+
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BLOCKS = 256;
+
+    private final Random random;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+    private Path path;
+    private int fd = -1;
+    private boolean write = true;
+
+    public IoWorkload(int ratePerSecond, long deadlineNanos, CountDownLatch finished, long seed) {
+        super("io", ratePerSecond, deadlineNanos, finished);
+        this.random = new Random(seed);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        path = Files.createTempFile("workload-io", ".bin");
+        fd = OS.open("file " + path);
+        random.nextBytes(buffer.array());
+    }
+
+    @Override
+    protected void operate() {
+        long position = (long) random.nextInt(BLOCKS) * BLOCK_SIZE;
+        buffer.clear();
+        if (write) {
+            OS.pwrite(fd, buffer, position);
+        } else {
+            OS.pread(fd, buffer, position);
+        }
+        write = !write;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (fd != -1) {
+            OS.close(fd);
+        }
+        Files.deleteIfExists(path);
+    }
+}
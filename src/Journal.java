@@ -0,0 +1,306 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log for file devices. A write is appended here and made
+ * durable before it reaches the block cache, so it survives a crash even
+ * though the cache writes back lazily.
+ * <p>
+ * Writers queue records and wait on a wait queue, so a writing process gives
+ * up the CPU; a single committer thread writes every queued record with one
+ * append and one {@code force()}, so concurrent writers share the cost of a
+ * sync (group commit). A failed sync fails only the writers in that batch.
+ * On startup, {@link #recover} replays every intact record into its file.
+ * Records after a torn, corrupt or out-of-sequence one are ignored.
+ * {@link #truncate} checkpoints the log once the files themselves have been synced.
+ */
+public class Journal {
+
+    private static final int MAGIC = 0x4A524E4C; // "JRNL"
+    // magic, payload length, sequence number, CRC of sequence and payload
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final long DEFAULT_CHECKPOINT_BYTES = 16L * 1024 * 1024;
+
+    private static final class Record {
+        final byte[] path;
+        final long position;
+        final byte[] data;
+        IOException failure;
+        volatile boolean settled; // Set after failure, once the record's batch is durable or has failed
+
+        Record(byte[] path, long position, byte[] data) {
+            this.path = path;
+            this.position = position;
+            this.data = data;
+        }
+    }
+
+    private final Path logPath;
+    private final FileChannel channel;
+    private final long checkpointBytes;
+    private final Object lock = new Object();
+    private final WaitQueue committed = new WaitQueue();
+    private List<Record> pending = new ArrayList<>();
+    private long lastSequence = 0; // Sequence number of the last durable record
+    private long logSize;
+
+    private long commits = 0;
+    private long records = 0;
+
+    public Journal(Path logPath) throws IOException {
+        this(logPath, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    public Journal(Path logPath, long checkpointBytes) throws IOException {
+        this.logPath = logPath.toAbsolutePath().normalize();
+        this.checkpointBytes = checkpointBytes;
+        this.channel = FileChannel.open(this.logPath,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.logSize = channel.size();
+        Thread committer = new Thread(this::commitLoop, "journal-committer");
+        committer.setDaemon(true);
+        committer.start();
+    }
+
+    /**
+     * Replays every intact record into its target file, forces those files,
+     * and empties the log. Must run before the files are opened.
+     *
+     * @return the number of records replayed
+     */
+    public int recover() throws IOException {
+        synchronized (lock) {
+            int replayed = 0;
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            List<FileChannel> touched = new ArrayList<>();
+            List<Path> touchedPaths = new ArrayList<>();
+            try {
+                while (true) {
+                    header.clear();
+                    if (readFully(header, position) < HEADER_SIZE || header.getInt(0) != MAGIC) {
+                        break;
+                    }
+                    int length = header.getInt(4);
+                    if (length < 0 || position + HEADER_SIZE + length > logSize) {
+                        break; // Torn tail
+                    }
+                    ByteBuffer payload = ByteBuffer.allocate(length);
+                    readFully(payload, position + HEADER_SIZE);
+                    long sequence = header.getLong(8);
+                    if (replayed > 0 && sequence != lastSequence + 1) {
+                        break; // Left over from an earlier write of this part of the log
+                    }
+                    if (checksum(sequence, payload.array()) != header.getInt(16)) {
+                        break; // Corrupt record; nothing after it can be trusted
+                    }
+                    payload.flip();
+                    byte[] pathBytes = new byte[payload.getShort()];
+                    payload.get(pathBytes);
+                    long target = payload.getLong();
+                    Path file = Paths.get(new String(pathBytes, StandardCharsets.UTF_8));
+
+                    int index = touchedPaths.indexOf(file);
+                    if (index < 0) {
+                        touchedPaths.add(file);
+                        touched.add(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE));
+                        index = touched.size() - 1;
+                    }
+                    ByteBuffer data = payload.slice();
+                    while (data.hasRemaining()) {
+                        touched.get(index).write(data, target + data.position());
+                    }
+                    lastSequence = sequence;
+                    position += HEADER_SIZE + length;
+                    replayed++;
+                }
+                for (FileChannel file : touched) {
+                    file.force(true);
+                }
+            } finally {
+                for (FileChannel file : touched) {
+                    file.close();
+                }
+            }
+            truncate();
+            return replayed;
+        }
+    }
+
+    /**
+     * Logs a write and blocks until it is durable.
+     *
+     * @param file absolute path of the file being written
+     * @param position byte offset of the write in the file
+     * @param data the bytes being written; read from position to limit without consuming them
+     * @throws IOException if the log could not be written or synced
+     */
+    public void commit(Path file, long position, ByteBuffer data) throws IOException {
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        byte[] path = file.toString().getBytes(StandardCharsets.UTF_8);
+
+        Record record = new Record(path, position, copy);
+        synchronized (lock) {
+            pending.add(record);
+            lock.notifyAll();
+        }
+        if (!committed.await(() -> record.settled, -1)) {
+            throw new IOException("Interrupted waiting for journal commit.");
+        }
+        if (record.failure != null) {
+            throw record.failure;
+        }
+    }
+
+    /**
+     * @return true once the log has grown past its checkpoint threshold
+     */
+    public boolean needsCheckpoint() {
+        synchronized (lock) {
+            return logSize >= checkpointBytes;
+        }
+    }
+
+    /**
+     * Empties the log. Only call once every logged write has been applied to
+     * its file and forced, and while no commit is in progress.
+     */
+    public void truncate() throws IOException {
+        synchronized (lock) {
+            channel.truncate(0);
+            channel.force(true);
+            logSize = 0;
+        }
+    }
+
+    public long getSize() {
+        synchronized (lock) {
+            return logSize;
+        }
+    }
+
+    /**
+     * @return average number of records made durable per sync
+     */
+    public double getAverageBatchSize() {
+        synchronized (lock) {
+            return commits == 0 ? 0.0 : (double) records / commits;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format("Journal{log=%s, size=%d, commits=%d, records=%d, avgBatch=%.2f}",
+                    logPath, logSize, commits, records, getAverageBatchSize());
+        }
+    }
+
+    private void commitLoop() {
+        while (true) {
+            List<Record> batch;
+            long position;
+            long firstSequence;
+            synchronized (lock) {
+                while (pending.isEmpty()) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                position = logSize;
+                firstSequence = lastSequence + 1;
+            }
+
+            ByteBuffer encoded = encode(batch, firstSequence);
+            int length = encoded.remaining();
+            IOException error = null;
+            try {
+                if (channel.size() > position) {
+                    channel.truncate(position); // Drop what a failed batch left past the end of the log
+                }
+                while (encoded.hasRemaining()) {
+                    channel.write(encoded, position + encoded.position());
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                System.err.println("Journal write failed for " + logPath + ": " + e.getMessage());
+                error = e;
+            }
+
+            synchronized (lock) {
+                if (error == null) {
+                    logSize = position + length;
+                    lastSequence = firstSequence + batch.size() - 1;
+                    commits++;
+                    records += batch.size();
+                }
+            }
+            for (Record record : batch) {
+                record.failure = error;
+                record.settled = true;
+            }
+            committed.wakeAll();
+        }
+    }
+
+    private static ByteBuffer encode(List<Record> batch, long firstSequence) {
+        int total = 0;
+        for (Record record : batch) {
+            total += HEADER_SIZE + payloadLength(record);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        long sequence = firstSequence;
+        for (Record record : batch) {
+            int length = payloadLength(record);
+            int start = buffer.position();
+            buffer.position(start + HEADER_SIZE);
+            buffer.putShort((short) record.path.length).put(record.path)
+                    .putLong(record.position).put(record.data);
+            int crc = checksum(sequence, buffer.array(), start + HEADER_SIZE, length);
+            buffer.putInt(start, MAGIC).putInt(start + 4, length)
+                    .putLong(start + 8, sequence).putInt(start + 16, crc);
+            sequence++;
+        }
+        return buffer.flip();
+    }
+
+    private static int payloadLength(Record record) {
+        return 2 + record.path.length + 8 + record.data.length;
+    }
+
+    private static int checksum(long sequence, byte[] payload) {
+        return checksum(sequence, payload, 0, payload.length);
+    }
+
+    private static int checksum(long sequence, byte[] payload, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, sequence));
+        crc.update(payload, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private int readFully(ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + total);
+            if (count < 0) {
+                break;
+            }
+            total += count;
+        }
+        return total;
+    }
+}
@@ -1,35 +1,110 @@
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 public class Kernel implements Runnable, Devices {
     private final Thread kernelThread;
     private final Semaphore signal = new Semaphore(0);
+    private final Semaphore completed = new Semaphore(0);
     private final Scheduler processScheduler;
     private final VFS virtualFileSystem;
     private final FakeFileSystem fileManager;
-    private final Map<Integer, PCB> waitingProcesses = new HashMap<>();
+    private final Map<Integer, PCB> waitingProcesses = new ConcurrentHashMap<>();
+    private final Map<Integer, MappedFile> mappedFiles = new HashMap<>();
+    private final Map<String, Set<Integer>> processGroups = new ConcurrentHashMap<>();
+    private final Map<Integer, SharedChannel> channels = new ConcurrentHashMap<>();
+    // Futexes with waiters, keyed by physical address of the futex word; guarded by itself
+    private final Map<Integer, Futex> futexQueues = new HashMap<>();
+    private int nextChannelId = 0;
     private final int[] activeDevices;
-    private static final boolean[] freeList = new boolean[1024];
-    private static final int PAGE_SIZE = 1024;
+    private static final int PAGE_SIZE = MemoryLayout.getPageSize();
+    private static final int HUGE_PAGE_SIZE = MemoryLayout.getHugePageSize();
+    private static final boolean[] freeList = new boolean[MemoryLayout.getFrameCount()];
     private static final String SWAP_FILE = "swapfile.swap";
     private int swapFileDescriptor;
 
+    // -Dos.virtualTime=true runs on simulated time with fixed random seeds (-Dos.seed, default 42)
+    private static final boolean VIRTUAL_TIME = Boolean.getBoolean("os.virtualTime");
+    private static final long QUANTUM_MILLIS = Long.getLong("os.quantum", 1);
+    private static final Clock clock = VIRTUAL_TIME ? new VirtualClock(0, ZoneOffset.UTC) : Clock.systemDefaultZone();
+    private static final AtomicLong nextSeed = new AtomicLong(Long.getLong("os.seed", 42));
+
     public Kernel() {
         this.kernelThread = new Thread(this);
         this.processScheduler = new Scheduler(this);
         this.virtualFileSystem = new VFS();
-        this.fileManager = new FakeFileSystem();
+        // Swap contents do not outlive the run, so they are never journaled
+        this.fileManager = new FakeFileSystem((Journal) null);
         this.activeDevices = new int[1024];
         Arrays.fill(freeList, true);
         initializeSwapFile();
+        // Unlike the built-in drivers, proc reports on one kernel, so each kernel installs its own
+        DriverRegistry.register("proc", new ProcDevice(processScheduler));
     }
 
     public static boolean[] getFreelist() {
         return freeList;
     }
 
+    /**
+     * @return the clock timers and sleeps are measured against; simulated in virtual time mode
+     */
+    public static Clock getClock() {
+        return clock;
+    }
+
+    public static boolean isVirtualTime() {
+        return VIRTUAL_TIME;
+    }
+
+    /**
+     * @return a monotonic time in nanoseconds, simulated in virtual time mode
+     */
+    public static long nanoTime() {
+        return VIRTUAL_TIME ? ((VirtualClock) clock).nanoTime() : System.nanoTime();
+    }
+
+    /**
+     * Charges simulated time. Does nothing on the real clock, where time passes by itself.
+     */
+    public static void advanceTime(long milliseconds) {
+        if (VIRTUAL_TIME) {
+            ((VirtualClock) clock).advance(milliseconds * 1_000_000L);
+        }
+    }
+
+    /**
+     * Jumps simulated time forward to the given clock reading.
+     */
+    public static void advanceTimeTo(long epochMillis) {
+        if (VIRTUAL_TIME) {
+            ((VirtualClock) clock).advanceTo(epochMillis);
+        }
+    }
+
+    /**
+     * Creates a generator for kernel and device randomness. In virtual time
+     * mode each generator gets the next seed in a fixed sequence, so a run
+     * can be replayed.
+     */
+    public static Random newRandom() {
+        return VIRTUAL_TIME ? new Random(nextSeed.getAndIncrement()) : new Random();
+    }
+
     public void start() {
         signal.release();
         if (!kernelThread.isAlive()) {
@@ -37,12 +112,27 @@ public class Kernel implements Runnable, Devices {
         }
     }
 
+    /**
+     * Blocks the trapping thread until the kernel has finished the current system call.
+     */
+    public void awaitSystemCall() {
+        completed.acquireUninterruptibly();
+    }
+
     @Override
     public void run() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                signal.acquire();
-                handleSystemCall();
+                // Idle waits happen here rather than inside a trap, so other callers are never held up
+                if (signal.tryAcquire(processScheduler.getIdleWaitMillis(), TimeUnit.MILLISECONDS)) {
+                    try {
+                        handleSystemCall();
+                    } finally {
+                        completed.release();
+                    }
+                } else {
+                    processScheduler.dispatchIfIdle();
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -60,22 +150,118 @@ public class Kernel implements Runnable, Devices {
         }
     }
 
+    /**
+     * Copies a frame out of physical memory.
+     *
+     * @param physicalPage the frame number
+     * @return a copy of the frame's contents
+     */
     public static byte[] getPhysicalMemory(int physicalPage) {
-        VirtualToPhysicalMapping mapping = PCB.getPagetable()[physicalPage];
-        if (mapping != null && mapping.data != null) {
-            return mapping.data;
+        int start = physicalPage * PAGE_SIZE;
+        return Arrays.copyOfRange(UserlandProcess.getMemory(), start, start + PAGE_SIZE);
+    }
+
+    /**
+     * Overwrites a frame in physical memory.
+     *
+     * @param physicalPage the frame number
+     * @param data exactly one page of data
+     */
+    public static void setPhysicalMemory(int physicalPage, byte[] data) {
+        System.arraycopy(data, 0, UserlandProcess.getMemory(), physicalPage * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    /**
+     * Writes a page to its slot in the swap file.
+     *
+     * @return true if the whole page was written
+     */
+    public boolean writeSwapPage(int diskPageNumber, byte[] data) {
+        // Positional I/O leaves the shared offset alone, so concurrent page-outs need no lock
+        return fileManager.WriteAt(swapFileDescriptor, ByteBuffer.wrap(data, 0, PAGE_SIZE),
+                (long) diskPageNumber * PAGE_SIZE) == PAGE_SIZE;
+    }
+
+    /**
+     * Reads a page from its slot in the swap file.
+     *
+     * @return true if the whole page was read
+     */
+    public boolean readSwapPage(int diskPageNumber, byte[] destination) {
+        ByteBuffer page = ByteBuffer.wrap(destination, 0, PAGE_SIZE);
+        long position = (long) diskPageNumber * PAGE_SIZE;
+        while (page.hasRemaining()) {
+            if (fileManager.ReadAt(swapFileDescriptor, page, position + page.position()) <= 0) {
+                return false;
+            }
         }
-        throw new IllegalStateException("No valid data for page: " + physicalPage);
+        return true;
     }
 
     public int AllocateMemory(int size) {
-        int pagesNeeded = size / PAGE_SIZE;
-        for (int i = 0; i <= PCB.getPagetable().length - pagesNeeded; i++) {
+        int startPage = reservePages(size / PAGE_SIZE, 1);
+        if (startPage == -1) {
+            return -1;
+        }
+        PCB currentProcess = processScheduler.getCurrentlyRunning();
+        if (currentProcess != null) {
+            currentProcess.getMemoryStats().addAllocatedBytes(size);
+        }
+        return startPage * PAGE_SIZE; // Virtual memory address
+    }
+
+    /**
+     * Allocates memory backed by huge pages. Each huge page is a physically
+     * contiguous run of frames that is populated up front, pinned in memory
+     * and covered by a single TLB entry.
+     *
+     * @param size number of bytes, a multiple of the huge page size
+     * @return the virtual address of the allocation, or -1 on failure
+     */
+    public int AllocateHugeMemory(int size) {
+        int span = HUGE_PAGE_SIZE / PAGE_SIZE;
+        int hugePages = size / HUGE_PAGE_SIZE;
+        int startPage = reservePages(hugePages * span, span);
+        if (startPage == -1) {
+            return -1;
+        }
+
+        PCB currentProcess = processScheduler.getCurrentlyRunning();
+        if (currentProcess != null) {
+            currentProcess.getMemoryStats().addAllocatedBytes(size);
+        }
+        for (int h = 0; h < hugePages; h++) {
+            int physicalBase = processScheduler.findFreePhysicalRun(span);
+            if (physicalBase == -1) {
+                FreeMemory(startPage * PAGE_SIZE, hugePages * HUGE_PAGE_SIZE);
+                return -1;
+            }
+            VirtualToPhysicalMapping mapping = new VirtualToPhysicalMapping();
+            mapping.allocated = true;
+            mapping.pinned = true;
+            mapping.ownerPid = processScheduler.getPid();
+            mapping.virtualBasePage = startPage + h * span;
+            mapping.pageSpan = span;
+            mapping.physicalPageNumber = physicalBase;
+            mapping.isInitialized = true;
+            Arrays.fill(PCB.getPagetable(), mapping.virtualBasePage, mapping.virtualBasePage + span, mapping);
+            if (currentProcess != null) {
+                currentProcess.getMemoryStats().recordHugePageFault(span);
+            }
+        }
+        return startPage * PAGE_SIZE;
+    }
+
+    private int reservePages(int pagesNeeded, int alignment) {
+        for (int i = 0; i <= PCB.getPagetable().length - pagesNeeded; i += alignment) {
             if (arePagesFree(i, pagesNeeded)) {
                 for (int j = 0; j < pagesNeeded; j++) {
-                    PCB.getPagetable()[i + j] = new VirtualToPhysicalMapping();
+                    VirtualToPhysicalMapping mapping = new VirtualToPhysicalMapping();
+                    mapping.allocated = true;
+                    mapping.ownerPid = processScheduler.getPid();
+                    PCB.getPagetable()[i + j] = mapping;
                 }
-                return i * PAGE_SIZE; // Virtual memory address
+                return i;
             }
         }
         return -1; // Insufficient memory
@@ -83,30 +269,351 @@ public class Kernel implements Runnable, Devices {
 
     private boolean arePagesFree(int start, int count) {
         for (int i = start; i < start + count; i++) {
-            if (PCB.getPagetable()[i] != null) {
+            VirtualToPhysicalMapping mapping = PCB.getPagetable()[i];
+            if (mapping != null && mapping.allocated) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Maps part of an open file into the virtual address space. Pages are
+     * read from the file on first touch and written back when dirty.
+     *
+     * @param id the process-local device id of an open file
+     * @param offset page-aligned offset into the file
+     * @param length number of bytes to map
+     * @return the virtual address of the mapping, or -1 on failure
+     */
+    public synchronized int Mmap(int id, int offset, int length) {
+        PCB currentProcess = processScheduler.getCurrentlyRunning();
+        FileDescriptorTable.Descriptor file = descriptor(id);
+        if (file == null || offset % PAGE_SIZE != 0 || length <= 0) {
+            return -1;
+        }
+
+        int pagesNeeded = (length + PAGE_SIZE - 1) / PAGE_SIZE;
+        int startPage = reservePages(pagesNeeded, 1);
+        if (startPage == -1) {
+            return -1;
+        }
+
+        currentProcess.getMemoryStats().addAllocatedBytes((long) pagesNeeded * PAGE_SIZE);
+        file.retain(); // Released by unmap, so the VFS slot cannot be reused under the mapping
+        MappedFile mappedFile = new MappedFile(file, currentProcess.getPid(), offset, startPage, length);
+        for (int i = 0; i < pagesNeeded; i++) {
+            PCB.getPagetable()[startPage + i].mappedFile = mappedFile;
+        }
+        mappedFiles.put(startPage, mappedFile);
+        return startPage * PAGE_SIZE;
+    }
+
+    /**
+     * Writes back dirty pages of a mapping and releases its address range.
+     *
+     * @param address the address returned by {@link #Mmap}
+     * @return true if a mapping owned by the caller started at the address
+     */
+    public synchronized boolean Munmap(int address) {
+        if (address % PAGE_SIZE != 0) {
+            return false;
+        }
+        MappedFile mappedFile = mappedFiles.get(address / PAGE_SIZE);
+        if (mappedFile == null || mappedFile.getOwnerPid() != getPid()) {
+            return false;
+        }
+        unmap(mappedFile);
+        return true;
+    }
+
+    /**
+     * Unmaps every mapping the process still holds, as when it exits.
+     */
+    private synchronized void unmapAll(PCB process) {
+        for (MappedFile mappedFile : new ArrayList<>(mappedFiles.values())) {
+            if (mappedFile.getOwnerPid() == process.getPid()) {
+                unmap(mappedFile);
+            }
+        }
+    }
+
+    private void unmap(MappedFile mappedFile) {
+        mappedFiles.remove(mappedFile.getStartPage());
+        for (int i = 0; i < mappedFile.getPageCount(); i++) {
+            int virtualPage = mappedFile.getStartPage() + i;
+            VirtualToPhysicalMapping mapping = PCB.getPagetable()[virtualPage];
+            if (mapping.physicalPageNumber != -1) {
+                if (mapping.dirty) {
+                    mappedFile.writeBack(virtualPage, mapping.physicalPageNumber);
+                }
+                freeList[mapping.physicalPageNumber] = true;
+            }
+            releaseAccounting(mapping);
+            PCB.getPagetable()[virtualPage] = null;
+            invalidateTLB(virtualPage);
+        }
+        if (mappedFile.getFile().releaseReference()) {
+            virtualFileSystem.Close(mappedFile.getFile().getVfsId());
+        }
+    }
+
+    /**
+     * Creates a ring buffer channel over freshly allocated, pinned frames and
+     * maps it into the shared address space. The creator is the producer; a
+     * consumer attaches with {@link #OpenChannel}.
+     *
+     * @param pages number of frames backing the ring
+     * @return the channel, or null if frames or address space ran out
+     */
+    public synchronized SharedChannel CreateChannel(int pages) {
+        if (pages <= 0) {
+            return null;
+        }
+        int startPage = reservePages(pages, 1);
+        if (startPage == -1) {
+            return null;
+        }
+
+        int[] frames = new int[pages];
+        for (int i = 0; i < pages; i++) {
+            frames[i] = processScheduler.findFreePhysicalPage();
+            if (frames[i] == -1) {
+                // Nothing was mapped or accounted yet, so only the reserved entries need undoing
+                for (int j = 0; j < pages; j++) {
+                    PCB.getPagetable()[startPage + j] = null;
+                }
+                for (int j = 0; j < i; j++) {
+                    freeList[frames[j]] = true;
+                }
+                return null;
+            }
+        }
+
+        PCB currentProcess = processScheduler.getCurrentlyRunning();
+        for (int i = 0; i < pages; i++) {
+            VirtualToPhysicalMapping mapping = PCB.getPagetable()[startPage + i];
+            mapping.physicalPageNumber = frames[i];
+            mapping.isInitialized = true;
+            mapping.pinned = true;
+            if (currentProcess != null) {
+                currentProcess.getMemoryStats().recordMinorFault();
+            }
+        }
+        if (currentProcess != null) {
+            currentProcess.getMemoryStats().addAllocatedBytes((long) pages * PAGE_SIZE);
+        }
+
+        SharedChannel channel = new SharedChannel(nextChannelId++, frames, startPage);
+        channels.put(channel.getId(), channel);
+        return channel;
+    }
+
+    public SharedChannel OpenChannel(int channelId) {
+        return channels.get(channelId);
+    }
+
+    /**
+     * Blocks the current process on a wait queue until the condition holds,
+     * descheduling it meanwhile. Used by shared-memory objects whose fast
+     * path never enters the kernel.
+     */
+    public void Await(WaitQueue queue, BooleanSupplier condition) {
+        whileBlocking(processScheduler.getCurrentlyRunning(), () -> {
+            queue.await(condition);
+            return null;
+        });
+    }
+
+    /**
+     * Releases one end of a channel. When both ends are closed the frames
+     * are unmapped and returned to the free list.
+     *
+     * @param channelId the channel to release
+     * @param end the side the caller holds
+     */
+    public synchronized void CloseChannel(int channelId, SharedChannel.End end) {
+        SharedChannel channel = channels.get(channelId);
+        if (channel == null || !channel.release(end)) {
+            return;
+        }
+        channels.remove(channelId);
+        int startPage = channel.getAddress() / PAGE_SIZE;
+        for (int i = 0; i < channel.getPageCount(); i++) {
+            VirtualToPhysicalMapping mapping = PCB.getPagetable()[startPage + i];
+            freeList[mapping.physicalPageNumber] = true;
+            releaseAccounting(mapping);
+            PCB.getPagetable()[startPage + i] = null;
+            invalidateTLB(startPage + i);
+        }
+    }
+
+    /**
+     * Blocks the current process while the futex word still holds the
+     * expected value, until another process wakes the address.
+     *
+     * @param address 4-byte aligned virtual address of the futex word
+     * @param expected the value the caller last observed
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return true if woken, false if the value had changed or the timeout expired
+     */
+    public boolean FutexWait(int address, int expected, long timeoutMillis) {
+        checkFutexAlignment(address);
+        Futex futex;
+        synchronized (futexQueues) {
+            // Fault the page in; the first waiter pins it so the key stays valid until the last one leaves
+            VirtualToPhysicalMapping mapping = PCB.getMapping(address / PAGE_SIZE, processScheduler);
+            int physicalAddress = physicalAddressOf(address, mapping);
+            futex = futexQueues.computeIfAbsent(physicalAddress, key -> new Futex(key, mapping));
+            if (futex.waiters++ == 0) {
+                mapping.pinCount++;
+            }
+        }
+        try {
+            return whileBlocking(processScheduler.getCurrentlyRunning(), () -> futex.queue.awaitWakeup(
+                    () -> UserlandProcess.readPhysicalInt(futex.physicalAddress) == expected, timeoutMillis));
+        } finally {
+            synchronized (futexQueues) {
+                if (--futex.waiters == 0) {
+                    futex.mapping.pinCount--;
+                    futexQueues.remove(futex.physicalAddress);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wakes up to {@code count} processes waiting on the futex word.
+     *
+     * @param address 4-byte aligned virtual address of the futex word
+     * @param count maximum number of waiters to wake
+     * @return the number of processes woken
+     */
+    public int FutexWake(int address, int count) {
+        checkFutexAlignment(address);
+        Futex futex;
+        synchronized (futexQueues) {
+            // A page with waiters is pinned, so a page that is not resident has none
+            VirtualToPhysicalMapping mapping = PCB.getPagetable()[address / PAGE_SIZE];
+            if (mapping == null || mapping.physicalPageNumber == -1) {
+                return 0;
+            }
+            futex = futexQueues.get(physicalAddressOf(address, mapping));
+        }
+        return futex != null ? futex.queue.wake(count) : 0;
+    }
+
+    private static void checkFutexAlignment(int address) {
+        if ((address & 3) != 0) {
+            throw new IllegalArgumentException("Futex address is not 4-byte aligned: " + address);
+        }
+    }
+
+    private static int physicalAddressOf(int address, VirtualToPhysicalMapping mapping) {
+        int virtualPage = address / PAGE_SIZE;
+        int physicalPage = mapping.pageSpan > 1
+                ? mapping.physicalPageNumber + (virtualPage - mapping.virtualBasePage)
+                : mapping.physicalPageNumber;
+        return physicalPage * PAGE_SIZE + address % PAGE_SIZE;
+    }
+
+    // A futex word with at least one waiter, and the page it pins
+    private static final class Futex {
+        final WaitQueue queue = new WaitQueue();
+        final int physicalAddress;
+        final VirtualToPhysicalMapping mapping;
+        int waiters;
+
+        Futex(int physicalAddress, VirtualToPhysicalMapping mapping) {
+            this.physicalAddress = physicalAddress;
+            this.mapping = mapping;
+        }
+    }
+
+    private void invalidateTLB(int virtualPage) {
+        for (int[] entry : UserlandProcess.getTlb()) {
+            if (virtualPage >= entry[0] && virtualPage < entry[0] + entry[2]) {
+                Arrays.fill(entry, -1);
+            }
+        }
+    }
+
     public boolean FreeMemory(int pointer, int size) {
         int startPage = pointer / PAGE_SIZE;
         int pageCount = size / PAGE_SIZE;
 
+        // Huge pages can only be released whole
+        for (int i = 0; i < pageCount; i++) {
+            VirtualToPhysicalMapping mapping = PCB.getPagetable()[startPage + i];
+            if (mapping != null && mapping.pageSpan > 1
+                    && (mapping.virtualBasePage < startPage
+                    || mapping.virtualBasePage + mapping.pageSpan > startPage + pageCount)) {
+                return false;
+            }
+        }
+
         for (int i = 0; i < pageCount; i++) {
             int pageIndex = startPage + i;
             VirtualToPhysicalMapping mapping = PCB.getPagetable()[pageIndex];
             if (mapping != null) {
-                if (mapping.physicalPageNumber != -1) {
-                    freeList[mapping.physicalPageNumber] = true;
+                if (mapping.pageSpan == 1 || mapping.virtualBasePage == pageIndex) {
+                    if (mapping.physicalPageNumber != -1) {
+                        Arrays.fill(freeList, mapping.physicalPageNumber,
+                                mapping.physicalPageNumber + mapping.pageSpan, true);
+                    }
+                    releaseAccounting(mapping);
                 }
                 PCB.getPagetable()[pageIndex] = null;
+                invalidateTLB(pageIndex);
             }
         }
         return true;
     }
 
+    private void releaseAccounting(VirtualToPhysicalMapping mapping) {
+        if (mapping.onDiskPageNumber != -1 && mapping.mappedFile == null) {
+            // The swap slot dies with the page, so its cached copy must not be written back later
+            processScheduler.getSwapCache().invalidate(mapping.onDiskPageNumber);
+        }
+        PCB owner = processScheduler.getProcess(mapping.ownerPid);
+        if (owner == null) {
+            return;
+        }
+        boolean resident = mapping.physicalPageNumber != -1;
+        boolean swapped = !resident && mapping.onDiskPageNumber != -1 && mapping.mappedFile == null;
+        owner.getMemoryStats().recordRelease(resident ? mapping.pageSpan : 0, swapped ? 1 : 0);
+        if (mapping.allocated) {
+            owner.getMemoryStats().addAllocatedBytes(-(long) mapping.pageSpan * PAGE_SIZE);
+        }
+    }
+
+    /**
+     * Returns a snapshot of a process's memory counters.
+     *
+     * @param pid the process to inspect
+     * @return the counters, or null if no such process exists
+     */
+    public MemoryStats getMemoryStats(int pid) {
+        PCB process = processScheduler.getProcess(pid);
+        return process != null ? process.getMemoryStats().snapshot() : null;
+    }
+
+    public void getMapping(int virtualPage) {
+        PCB currentProcess = processScheduler.getCurrentlyRunning();
+        if (currentProcess != null) {
+            currentProcess.getMemoryStats().recordTlbMiss();
+        }
+        PCB.getMapping(virtualPage, processScheduler);
+    }
+
+    public PCB getCurrentlyRunning() {
+        return processScheduler.getCurrentlyRunning();
+    }
+
+    public SwapCache getSwapCache() {
+        return processScheduler.getSwapCache();
+    }
+
     public int getPid() {
         return processScheduler.getPid();
     }
@@ -115,58 +622,384 @@ public class Kernel implements Runnable, Devices {
         return processScheduler.GetPidByName(name);
     }
 
-    public void sendMessage(KernelMessage message) {
+    /**
+     * Sends a message to the process named by its target pid. A sender that
+     * finds the mailbox full is descheduled until there is room, unless the
+     * mailbox fails fast. If the message is not delivered, a transferred
+     * payload stays with the sender's message and can be taken back.
+     *
+     * @param message the message to send
+     * @return true if the message was queued
+     */
+    public boolean sendMessage(KernelMessage message) {
         KernelMessage messageCopy = new KernelMessage(message);
         messageCopy.setSenderPid(getPid());
-        PCB target = processScheduler.getAllProcesses().get(messageCopy.getTargetPid());
+        PCB target = processScheduler.getProcess(messageCopy.getTargetPid());
 
         if (target != null) {
-            target.getMessageQueue().add(messageCopy);
-            if (target.isWaitingForMessage()) {
-                restoreProcess(target);
+            Tracer.instant(Tracer.Event.MESSAGE_SEND, messageCopy.getSenderPid(), messageCopy.getTargetPid());
+            // Wakes the receiver if it is blocked; false if the mailbox is full and senders fail fast
+            if (whileBlocking(processScheduler.getCurrentlyRunning(), () -> target.getMailbox().deliver(messageCopy))) {
+                return true;
             }
         } else {
             System.out.println("Target process does not exist.");
         }
+        messageCopy.returnPayloadTo(message);
+        return false;
+    }
+
+    /**
+     * Delivers a batch of messages in a single kernel entry. Messages are
+     * grouped per receiver so each receiver is woken at most once, unless
+     * the sender has to wait for room. Transferred payloads of messages that
+     * were not delivered stay with the sender's messages.
+     *
+     * @param messages the messages to send, each carrying its own target
+     * @return the number of messages delivered
+     */
+    public int sendMessages(List<KernelMessage> messages) {
+        int senderPid = getPid();
+        List<KernelMessage> copies = new ArrayList<>(messages.size());
+        for (KernelMessage message : messages) {
+            KernelMessage messageCopy = new KernelMessage(message);
+            messageCopy.setSenderPid(senderPid);
+            copies.add(messageCopy);
+        }
+        return deliverGrouped(copies, messages);
+    }
+
+    /**
+     * Delivers kernel-owned message copies grouped per receiver.
+     *
+     * @param copies the messages to deliver, already stamped with the sender's pid
+     * @param originals the sender's messages, index for index, to return undelivered transferred payloads to
+     * @return the number of messages delivered
+     */
+    private int deliverGrouped(List<KernelMessage> copies, List<KernelMessage> originals) {
+        Map<Integer, List<KernelMessage>> byTarget = new HashMap<>();
+        Map<Integer, List<KernelMessage>> originalsByTarget = new HashMap<>();
+        for (int i = 0; i < copies.size(); i++) {
+            int targetPid = copies.get(i).getTargetPid();
+            byTarget.computeIfAbsent(targetPid, pid -> new ArrayList<>()).add(copies.get(i));
+            originalsByTarget.computeIfAbsent(targetPid, pid -> new ArrayList<>()).add(originals.get(i));
+        }
+
+        PCB sender = processScheduler.getCurrentlyRunning();
+        int delivered = 0;
+        for (Map.Entry<Integer, List<KernelMessage>> entry : byTarget.entrySet()) {
+            List<KernelMessage> batch = entry.getValue();
+            PCB target = processScheduler.getProcess(entry.getKey());
+            int accepted = 0;
+            if (target != null) {
+                for (KernelMessage message : batch) {
+                    Tracer.instant(Tracer.Event.MESSAGE_SEND, message.getSenderPid(), message.getTargetPid());
+                }
+                accepted = whileBlocking(sender, () -> target.getMailbox().deliverAll(batch));
+            }
+            List<KernelMessage> batchOriginals = originalsByTarget.get(entry.getKey());
+            for (int i = accepted; i < batch.size(); i++) {
+                batch.get(i).returnPayloadTo(batchOriginals.get(i));
+            }
+            delivered += accepted;
+        }
+        return delivered;
+    }
+
+    /**
+     * Sends a copy of the message to every member of a process group.
+     * The payload is cloned once per member for copied messages and shared
+     * for borrowed ones.
+     *
+     * @param group the group name
+     * @param message the message to fan out; its target pid is ignored
+     * @return the number of members that received it
+     */
+    public int multicast(String group, KernelMessage message) {
+        Set<Integer> members = processGroups.get(group);
+        if (members == null) {
+            return 0;
+        }
+        List<KernelMessage> batch = new ArrayList<>(members.size());
+        List<KernelMessage> originals = new ArrayList<>(members.size());
+        int senderPid = getPid();
+        for (int pid : members) {
+            if (pid != senderPid) {
+                KernelMessage messageCopy = new KernelMessage(message, pid);
+                messageCopy.setSenderPid(senderPid);
+                batch.add(messageCopy);
+                originals.add(message);
+            }
+        }
+        return deliverGrouped(batch, originals);
+    }
+
+    public void joinGroup(String group) {
+        processGroups.computeIfAbsent(group, name -> new CopyOnWriteArraySet<>()).add(getPid());
+    }
+
+    public void leaveGroup(String group) {
+        Set<Integer> members = processGroups.get(group);
+        if (members != null) {
+            members.remove(getPid());
+        }
+    }
+
+    public void leaveAllGroups(PCB process) {
+        for (Set<Integer> members : processGroups.values()) {
+            members.remove(process.getPid());
+        }
+    }
+
+    /**
+     * Sets the capacity and full-mailbox policy of the current process's mailbox.
+     *
+     * @param capacity maximum number of queued messages
+     * @param policy whether senders block or fail when the mailbox is full
+     */
+    public void SetMailboxCapacity(int capacity, Mailbox.SendPolicy policy) {
+        processScheduler.getCurrentlyRunning().getMailbox().setCapacity(capacity, policy);
+    }
+
+    /**
+     * Sends a request to a server and blocks until it replies. The CPU is
+     * handed directly to the server instead of going through the run queues.
+     *
+     * @param pid the server process
+     * @param message the request
+     * @return the server's reply, or null if the server does not exist or exits before replying
+     */
+    public KernelMessage Call(int pid, KernelMessage message) {
+        PCB client = processScheduler.getCurrentlyRunning();
+        PCB server = processScheduler.getProcess(pid);
+        if (server == null || server == client || server.isDone()) {
+            System.out.println("Call target process does not exist.");
+            return null;
+        }
+
+        KernelMessage request = new KernelMessage(message);
+        request.setSenderPid(client.getPid());
+        client.setCallTarget(pid);
+        Tracer.instant(Tracer.Event.MESSAGE_SEND, client.getPid(), pid);
+        server.getCallQueue().deliver(request); // Wakes the server if it is blocked in Receive
+
+        // A calling process stays off the run queues until Reply or the server's exit ends the call
+        while (client.getCallTarget() == pid) {
+            OS.switchProcess(server);
+        }
+        KernelMessage reply = client.getReplySlot().poll();
+        traceReceive(reply);
+        return reply;
+    }
+
+    /**
+     * Blocks the current process until a synchronous request arrives.
+     *
+     * @return the oldest pending request
+     */
+    public KernelMessage Receive() {
+        PCB server = processScheduler.getCurrentlyRunning();
+        KernelMessage request = whileBlocking(server, () -> server.getCallQueue().receive());
+        traceReceive(request);
+        return request;
+    }
+
+    /**
+     * Completes a call by delivering the reply to the blocked client and
+     * handing the CPU straight back to it. The server stays runnable.
+     *
+     * @param message the reply, addressed to the calling process
+     * @return true if the target was blocked calling this process
+     */
+    public boolean Reply(KernelMessage message) {
+        PCB server = processScheduler.getCurrentlyRunning();
+        PCB client = processScheduler.getProcess(message.getTargetPid());
+        if (client == null || !client.completeCall(server.getPid())) {
+            System.out.println("Reply target is not waiting on this process.");
+            return false;
+        }
+
+        // The client cannot run before it is restored, so it finds the reply in place
+        KernelMessage reply = new KernelMessage(message);
+        reply.setSenderPid(server.getPid());
+        Tracer.instant(Tracer.Event.MESSAGE_SEND, server.getPid(), client.getPid());
+        client.getReplySlot().deliver(reply);
+        restoreProcess(client);
+        OS.switchProcess(client);
+        return true;
+    }
+
+    /**
+     * Ends every call still waiting on an exiting server. The clients get a null reply.
+     */
+    public void failPendingCalls(PCB server) {
+        for (PCB client : processScheduler.getProcessSnapshot()) {
+            if (client.completeCall(server.getPid())) {
+                restoreProcess(client);
+            }
+        }
     }
 
     public void restoreProcess(PCB process) {
         processScheduler.RestoreToRunnableQueue(process);
     }
 
+    /**
+     * Takes the calling process off the CPU until {@link #wakeProcess} restores it or the deadline
+     * passes. The process is marked waiting before stillBlocked is re-checked, so a wake-up that
+     * races with the decision to block is never lost.
+     *
+     * @param process the running process, on its own thread
+     * @param stillBlocked false if the process no longer needs to wait
+     * @param deadlineNanos kernel clock deadline, or Long.MAX_VALUE to wait forever
+     */
+    public void blockCurrentProcess(PCB process, BooleanSupplier stillBlocked, long deadlineNanos) {
+        waitingProcesses.put(process.getPid(), process);
+        process.setWaiting(true);
+        if (!stillBlocked.getAsBoolean()) {
+            if (process.claimWakeup()) {
+                waitingProcesses.remove(process.getPid());
+            }
+            return;
+        }
+        if (deadlineNanos != Long.MAX_VALUE) {
+            long remainingMillis = Math.max(0, (deadlineNanos - nanoTime() + 999_999) / 1_000_000);
+            processScheduler.addTimer(process, clock.millis() + remainingMillis);
+        }
+        OS.switchProcess(); // Returns once a wake-up or the timeout has put the process back on a run queue
+    }
+
+    /**
+     * Puts a process blocked in {@link #blockCurrentProcess} back on its run queue. Only the first
+     * wake-up counts; later ones, and wake-ups of processes that are not waiting, do nothing.
+     */
+    public void wakeProcess(PCB process) {
+        if (process.claimWakeup()) {
+            waitingProcesses.remove(process.getPid());
+            processScheduler.cancelTimer(process);
+            restoreProcess(process);
+        }
+    }
+
+    // Runs a blocking call so that its waits deschedule the process instead of parking its thread.
+    // Calls made from any other thread than the process's own park that thread as usual.
+    private <T> T whileBlocking(PCB process, Supplier<T> call) {
+        if (process == null || !process.isCurrentThread()) {
+            return call.get();
+        }
+        return WaitQueue.withBlocker(new WaitQueue.Blocker() {
+            @Override
+            public void block(BooleanSupplier stillBlocked, long deadlineNanos) {
+                blockCurrentProcess(process, stillBlocked, deadlineNanos);
+            }
+
+            @Override
+            public void wake() {
+                wakeProcess(process);
+            }
+        }, call);
+    }
+
     public KernelMessage WaitForMessage() {
+        return WaitForMessage(-1);
+    }
+
+    /**
+     * Blocks the current process until a message arrives. The process is
+     * descheduled while it waits and consumes no CPU.
+     *
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return the oldest message, or null if the timeout expired first
+     */
+    public KernelMessage WaitForMessage(long timeoutMillis) {
+        return WaitForMessage(MessageFilter.ANY, timeoutMillis);
+    }
+
+    /**
+     * Blocks the current process until a message accepted by the filter
+     * arrives. Non-matching messages stay queued for later receives.
+     *
+     * @param filter selects acceptable messages by sender and what range
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return the matching message, or null if the timeout expired first
+     */
+    public KernelMessage WaitForMessage(MessageFilter filter, long timeoutMillis) {
         PCB currentProcess = processScheduler.getCurrentlyRunning();
+        Mailbox mailbox = currentProcess.getMailbox();
 
-        if (!currentProcess.getMessageQueue().isEmpty()) {
-            return currentProcess.getMessageQueue().remove();
+        KernelMessage message = mailbox.poll(filter);
+        if (message != null) {
+            traceReceive(message);
+            return message;
         }
 
-        descheduleCurrentProcess();
-        waitingProcesses.put(currentProcess.getPid(), currentProcess);
+        message = whileBlocking(currentProcess, () -> mailbox.receive(filter, timeoutMillis));
+        traceReceive(message);
+        return message;
+    }
+
+    private static void traceReceive(KernelMessage message) {
+        if (message != null) {
+            Tracer.instant(Tracer.Event.MESSAGE_RECEIVE, message.getSenderPid(), message.getTargetPid());
+        }
+    }
 
-        while (currentProcess.isWaitingForMessage()) {
-            processScheduler.switchProcess();
+    /**
+     * Waits until a message matching the filter is queued or one of the
+     * devices becomes readable, whichever happens first. Nothing is consumed.
+     *
+     * @param filter messages of interest, or null to ignore the mailbox
+     * @param ids process-local device ids to watch
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return what was ready when the wait ended
+     */
+    public PollResult Poll(MessageFilter filter, int[] ids, long timeoutMillis) {
+        PCB currentProcess = processScheduler.getCurrentlyRunning();
+        Mailbox mailbox = currentProcess.getMailbox();
+        int[] vfsIds = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            vfsIds[i] = vfsIdOf(ids[i]);
         }
 
-        return currentProcess.getMessageQueue().remove();
+        whileBlocking(currentProcess, () -> WaitQueue.awaitAny(
+                () -> (filter != null && mailbox.contains(filter)) || anyReadable(vfsIds),
+                timeoutMillis, mailbox.getWaitQueue(), VFS.getReadinessQueue()));
+
+        int[] ready = new int[ids.length];
+        int readyCount = 0;
+        for (int i = 0; i < ids.length; i++) {
+            if (vfsIds[i] != -1 && VFS.IsReadable(vfsIds[i])) {
+                ready[readyCount++] = ids[i];
+            }
+        }
+        boolean messageReady = filter != null && mailbox.contains(filter);
+        return new PollResult(messageReady, Arrays.copyOf(ready, readyCount));
     }
 
-    private void descheduleCurrentProcess() {
-        PCB runningProcess = processScheduler.getCurrentlyRunning();
-        if (runningProcess != null) {
-            runningProcess.setWaitingForMessage(true);
-        } else {
-            System.out.println("No running process to deschedule.");
+    private boolean anyReadable(int[] vfsIds) {
+        for (int vfsId : vfsIds) {
+            if (vfsId != -1 && VFS.IsReadable(vfsId)) {
+                return true;
+            }
         }
+        return false;
     }
 
     private void handleSystemCall() {
         switch (OS.currentCall) {
             case CREATE_PROCESS -> {
                 PCB process = (PCB) OS.parameters.get(0);
+                PCB parent = processScheduler.getCurrentlyRunning();
+                if (OS.parameters.size() > 1 && (Boolean) OS.parameters.get(1) && parent != null) {
+                    process.getDescriptors().inheritFrom(parent.getDescriptors());
+                }
                 processScheduler.createProcess(process);
             }
-            case SWITCH_PROCESS -> processScheduler.switchProcess();
+            case SWITCH_PROCESS -> {
+                advanceTime(QUANTUM_MILLIS); // The yielding process used up its time slice
+                PCB preferred = OS.parameters.isEmpty() ? null : (PCB) OS.parameters.get(0);
+                processScheduler.switchProcess(preferred);
+            }
             case SLEEP -> {
                 int milliseconds = (Integer) OS.parameters.get(0);
                 processScheduler.sleep(milliseconds);
@@ -178,60 +1011,151 @@ public class Kernel implements Runnable, Devices {
     @Override
     public int Open(String details) throws Exception {
         PCB currentProcess = processScheduler.getCurrentlyRunning();
-        int[] deviceIds = currentProcess.getDeviceIds();
-
-        for (int i = 0; i < deviceIds.length; i++) {
-            if (deviceIds[i] == -1) {
-                int vfsId = virtualFileSystem.Open(details);
-                if (vfsId != -1) {
-                    deviceIds[i] = vfsId;
-                    return i;
-                }
-                return -1;
-            }
+        int vfsId = virtualFileSystem.Open(details);
+        if (vfsId == -1) {
+            return -1;
         }
-        return -1;
+        return currentProcess.getDescriptors().install(vfsId, VFS.getDevices(vfsId), VFS.getDeviceId(vfsId));
     }
 
     public void Close(int id) {
         PCB currentProcess = processScheduler.getCurrentlyRunning();
-        int vfsId = currentProcess.getDeviceIds()[id];
-        if (vfsId != -1) {
-            virtualFileSystem.Close(vfsId);
-            currentProcess.getDeviceIds()[id] = -1;
+        FileDescriptorTable.Descriptor last = currentProcess.getDescriptors().release(id);
+        if (last != null) {
+            virtualFileSystem.Close(last.getVfsId());
         }
     }
 
+    /**
+     * Gives the current process a second descriptor for the same open device.
+     * The device stays open until every descriptor for it is closed.
+     *
+     * @param id the descriptor to duplicate
+     * @return the new descriptor, or -1 if {@code id} is not open
+     */
+    public int Dup(int id) {
+        return processScheduler.getCurrentlyRunning().getDescriptors().dup(id);
+    }
+
     @Override
     public byte[] Read(int id, int size) {
-        PCB currentProcess = processScheduler.getCurrentlyRunning();
-        int vfsId = currentProcess.getDeviceIds()[id];
-        return vfsId != -1 ? VFS.Read(vfsId, size) : new byte[0];
+        Tracer.begin(Tracer.Event.DEVICE_READ, id, size);
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        byte[] data = descriptor != null ? deviceCall(() -> descriptor.devices.Read(descriptor.deviceId, size)) : new byte[0];
+        Tracer.end(Tracer.Event.DEVICE_READ, id, data != null ? data.length : -1);
+        return data;
+    }
+
+    @Override
+    public int Read(int id, ByteBuffer destination) {
+        Tracer.begin(Tracer.Event.DEVICE_READ, id, destination.remaining());
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        int count = descriptor != null ? deviceCall(() -> descriptor.devices.Read(descriptor.deviceId, destination)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_READ, id, count);
+        return count;
+    }
+
+    @Override
+    public long ReadV(int id, ByteBuffer[] destinations) {
+        Tracer.begin(Tracer.Event.DEVICE_READ, id, destinations.length);
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        long count = descriptor != null ? deviceCall(() -> descriptor.devices.ReadV(descriptor.deviceId, destinations)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_READ, id, count);
+        return count;
+    }
+
+    public int ReadAt(int id, ByteBuffer destination, long position) {
+        Tracer.begin(Tracer.Event.DEVICE_READ, id, destination.remaining());
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        int count = descriptor != null ? deviceCall(() -> readAt(descriptor, destination, position)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_READ, id, count);
+        return count;
+    }
+
+    public int WriteAt(int id, ByteBuffer source, long position) {
+        Tracer.begin(Tracer.Event.DEVICE_WRITE, id, source.remaining());
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        int count = descriptor != null ? deviceCall(() -> writeAt(descriptor, source, position)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_WRITE, id, count);
+        return count;
+    }
+
+    public void Sync(int id) {
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        if (descriptor != null) {
+            descriptor.devices.Sync(descriptor.deviceId);
+        }
     }
 
     @Override
     public void Seek(int id, int to) {
-        PCB currentProcess = processScheduler.getCurrentlyRunning();
-        int vfsId = currentProcess.getDeviceIds()[id];
-        if (vfsId != -1) {
-            virtualFileSystem.Seek(vfsId, to);
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        if (descriptor != null) {
+            descriptor.devices.Seek(descriptor.deviceId, to);
         }
     }
 
     @Override
     public int Write(int id, byte[] data) {
-        PCB currentProcess = processScheduler.getCurrentlyRunning();
-        int vfsId = currentProcess.getDeviceIds()[id];
-        return vfsId != -1 ? VFS.Write(vfsId, data) : -1;
+        Tracer.begin(Tracer.Event.DEVICE_WRITE, id, data.length);
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        int count = descriptor != null ? deviceCall(() -> descriptor.devices.Write(descriptor.deviceId, data)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_WRITE, id, count);
+        return count;
+    }
+
+    @Override
+    public int Write(int id, ByteBuffer source) {
+        Tracer.begin(Tracer.Event.DEVICE_WRITE, id, source.remaining());
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        int count = descriptor != null ? deviceCall(() -> descriptor.devices.Write(descriptor.deviceId, source)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_WRITE, id, count);
+        return count;
+    }
+
+    @Override
+    public long WriteV(int id, ByteBuffer[] sources) {
+        Tracer.begin(Tracer.Event.DEVICE_WRITE, id, sources.length);
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        long count = descriptor != null ? deviceCall(() -> descriptor.devices.WriteV(descriptor.deviceId, sources)) : -1;
+        Tracer.end(Tracer.Event.DEVICE_WRITE, id, count);
+        return count;
+    }
+
+    // Device calls may wait, on a pipe for example; run them so the process is descheduled meanwhile
+    private <T> T deviceCall(Supplier<T> call) {
+        return whileBlocking(processScheduler.getCurrentlyRunning(), call);
+    }
+
+    // Resolves a descriptor of the running process; null if it is not open
+    private FileDescriptorTable.Descriptor descriptor(int id) {
+        return processScheduler.getCurrentlyRunning().getDescriptors().get(id);
+    }
+
+    // Positional devices are called directly; the VFS serializes the seek and read of the others
+    private static int readAt(FileDescriptorTable.Descriptor descriptor, ByteBuffer destination, long position) {
+        if (descriptor.devices instanceof PositionalDevices positional) {
+            return positional.ReadAt(descriptor.deviceId, destination, position);
+        }
+        return VFS.ReadAt(descriptor.getVfsId(), destination, position);
+    }
+
+    private static int writeAt(FileDescriptorTable.Descriptor descriptor, ByteBuffer source, long position) {
+        if (descriptor.devices instanceof PositionalDevices positional) {
+            return positional.WriteAt(descriptor.deviceId, source, position);
+        }
+        return VFS.WriteAt(descriptor.getVfsId(), source, position);
+    }
+
+    private int vfsIdOf(int id) {
+        FileDescriptorTable.Descriptor descriptor = descriptor(id);
+        return descriptor != null ? descriptor.getVfsId() : -1;
     }
 
     public void closeAllDevicesForProcess(PCB process) {
-        int[] deviceIds = process.getDeviceIds();
-        for (int i = 0; i < deviceIds.length; i++) {
-            if (deviceIds[i] != -1) {
-                virtualFileSystem.Close(deviceIds[i]);
-                deviceIds[i] = -1;
-            }
+        unmapAll(process); // Dirty mapped pages reach their files before the files close
+        for (FileDescriptorTable.Descriptor descriptor : process.getDescriptors().releaseAll()) {
+            virtualFileSystem.Close(descriptor.getVfsId());
         }
         System.out.println("Devices for process " + process.getPid() + " closed.");
     }
@@ -1,8 +1,23 @@
+import java.nio.ByteBuffer;
+
 public class KernelMessage {
+
+    /**
+     * How the payload travels from sender to receiver.
+     * COPY clones the payload at each hand-off, TRANSFER moves an owned
+     * {@link MessageBuffer} without copying, and BORROW shares the sender's
+     * array with the receiver as a read-only view.
+     */
+    public enum PayloadMode {
+        COPY, TRANSFER, BORROW
+    }
+
     private int senderPid;
     private int targetPid;
     private int what;
     private byte[] data;
+    private int length;
+    private final PayloadMode mode;
 
     // Constructor
     public KernelMessage(int senderPid, int targetPid, int what, byte[] data) {
@@ -10,14 +25,72 @@ public class KernelMessage {
         this.targetPid = targetPid;
         this.what = what;
         this.data = data.clone();
+        this.length = data.length;
+        this.mode = PayloadMode.COPY;
+    }
+
+    /**
+     * Builds a message that takes ownership of the buffer. The sender's
+     * handle is detached, so the payload is never copied.
+     */
+    public KernelMessage(int senderPid, int targetPid, int what, MessageBuffer buffer) {
+        this.senderPid = senderPid;
+        this.targetPid = targetPid;
+        this.what = what;
+        this.length = buffer.length();
+        this.data = buffer.detach();
+        this.mode = PayloadMode.TRANSFER;
+    }
+
+    /**
+     * Builds a message that lends the array to the receiver without copying.
+     * The sender must not modify the array until the receiver is done with it.
+     */
+    public static KernelMessage borrow(int senderPid, int targetPid, int what, byte[] data) {
+        return new KernelMessage(senderPid, targetPid, what, data, data.length, PayloadMode.BORROW);
+    }
+
+    private KernelMessage(int senderPid, int targetPid, int what, byte[] data, int length, PayloadMode mode) {
+        this.senderPid = senderPid;
+        this.targetPid = targetPid;
+        this.what = what;
+        this.data = data;
+        this.length = length;
+        this.mode = mode;
     }
 
-    // Copy constructor
+    // Copy constructor; borrowed payloads are shared and transferred ones move to the copy
     public KernelMessage(KernelMessage other) {
         this.senderPid = other.senderPid;
         this.targetPid = other.targetPid;
         this.what = other.what;
-        this.data = other.data.clone();
+        this.mode = other.mode;
+        this.length = other.length;
+        if (other.mode == PayloadMode.TRANSFER) {
+            other.ensurePayload();
+            this.data = other.data;
+            other.data = null;
+        } else {
+            this.data = other.mode == PayloadMode.COPY ? other.data.clone() : other.data;
+        }
+    }
+
+    /**
+     * Copies a message with a new destination, used for multicast.
+     * Zero-copy payloads are shared; transferred payloads have a single
+     * owner and cannot be fanned out.
+     */
+    public KernelMessage(KernelMessage other, int targetPid) {
+        this(requireShareable(other));
+        this.targetPid = targetPid;
+    }
+
+    // Checked before the copy constructor runs, which would move a transferred payload out of the original
+    private static KernelMessage requireShareable(KernelMessage other) {
+        if (other.mode == PayloadMode.TRANSFER) {
+            throw new IllegalArgumentException("Transferred payloads cannot be sent to more than one process.");
+        }
+        return other;
     }
 
     // Getter methods
@@ -37,19 +110,76 @@ public class KernelMessage {
         return what;
     }
 
+    public PayloadMode getMode() {
+        return mode;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
     public byte[] getData() {
-        return data.clone();
+        ensurePayload();
+        byte[] copy = new byte[length];
+        System.arraycopy(data, 0, copy, 0, length);
+        return copy;
+    }
+
+    /**
+     * Returns a read-only view of the payload without copying it.
+     *
+     * @return a read-only buffer positioned at the start of the payload
+     */
+    public ByteBuffer getBuffer() {
+        ensurePayload();
+        return ByteBuffer.wrap(data, 0, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Moves ownership of a transferred payload to the caller. The message no
+     * longer holds the payload afterwards; release the buffer when done so
+     * it can be reused.
+     *
+     * @return the owned payload buffer
+     */
+    public MessageBuffer takeBuffer() {
+        if (mode != PayloadMode.TRANSFER) {
+            throw new IllegalStateException("Only transferred payloads can be taken, mode is " + mode);
+        }
+        ensurePayload();
+        MessageBuffer buffer = new MessageBuffer(data, length);
+        data = null;
+        return buffer;
+    }
+
+    /**
+     * Moves a transferred payload back to the message it was copied from, so a
+     * sender whose message was not delivered can take its buffer back.
+     *
+     * @param original the message this one was copied from
+     */
+    void returnPayloadTo(KernelMessage original) {
+        if (mode == PayloadMode.TRANSFER && data != null) {
+            original.data = data;
+            data = null;
+        }
     }
 
+    private void ensurePayload() {
+        if (data == null) {
+            throw new IllegalStateException("Message payload has already been taken.");
+        }
+    }
 
     @Override
     public String toString() {
-        String dataString = new String(data);
+        String dataString = data != null ? new String(data, 0, length) : "<taken>";
         return "KernelMessage{" +
                 "senderPid=" + senderPid +
                 ", targetPid=" + targetPid +
                 ", messageType=" + what +
+                ", mode=" + mode +
                 ", data=" + dataString +
                 '}';
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,42 @@
+import java.util.Arrays;
+
+/**
+ * Collects latency samples for one workload process. Not thread-safe; each
+ * process records into its own recorder and the harness merges them at the end.
+ */
+public class LatencyRecorder {
+
+    private long[] samples = new long[1024];
+    private int count = 0;
+
+    public void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+
+    public void addAll(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.samples[i]);
+        }
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the sample at that percentile in nanoseconds, or 0 with no samples
+     */
+    public long getPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+}
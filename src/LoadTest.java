@@ -0,0 +1,195 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load-test harness. Boots the kernel with a configurable mix of synthetic
+ * workloads, runs them for a fixed time, and reports throughput, scheduling
+ * latency percentiles, fault rates and memory use.
+ * <p>
+ * Arguments are {@code key=value} pairs:
+ * <pre>
+ *   cpu=N io=N message=N memory=N   number of processes of each kind (default 1 each)
+ *   rate=R                          target operations per second per process (default 50)
+ *   cpu.rate=R, io.rate=R, ...      per-kind rate overrides
+ *   pages=N                         pages allocated by each memory workload (default 64)
+ *   duration=MS                     length of the run in milliseconds (default 5000)
+ *   seed=S                          base seed for every workload's random choices (default 42)
+ * </pre>
+ * Times are read from the kernel clock, so with {@code -Dos.virtualTime=true}
+ * the duration is simulated time and a long run finishes in a fraction of it.
+ * Example: {@code java LoadTest cpu=4 io=2 message=4 memory=2 rate=500 duration=10000}
+ */
+public class LoadTest {
+
+    private static final String[] KINDS = {"cpu", "io", "message", "memory"};
+    private static final long GRACE_MILLIS = 5000;
+    private static final long SAMPLE_MILLIS = 50;
+
+    // Starts every workload from inside the simulated system, then stays out of the way
+    private static final class Launcher extends UserlandProcess {
+        private final List<WorkloadProcess> workloads;
+
+        Launcher(List<WorkloadProcess> workloads) {
+            this.workloads = workloads;
+        }
+
+        @Override
+        public void main() {
+            for (WorkloadProcess workload : workloads) {
+                OS.createProcess(workload);
+            }
+            while (true) {
+                OS.sleep(1000);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parse(args);
+        int rate = intOption(options, "rate", 50);
+        int pages = intOption(options, "pages", 64);
+        long duration = intOption(options, "duration", 5000);
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+
+        Map<String, Integer> counts = new HashMap<>();
+        int total = 0;
+        for (String kind : KINDS) {
+            counts.put(kind, intOption(options, kind, 1));
+            total += counts.get(kind);
+        }
+        if (total == 0) {
+            System.err.println("No workloads requested.");
+            return;
+        }
+
+        CountDownLatch finished = new CountDownLatch(total);
+        long start = Kernel.nanoTime();
+        long realStart = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(duration);
+        List<WorkloadProcess> workloads = new ArrayList<>();
+        List<MessageWorkload> ring = new CopyOnWriteArrayList<>();
+        for (String kind : KINDS) {
+            int kindRate = intOption(options, kind + ".rate", rate);
+            for (int i = 0; i < counts.get(kind); i++) {
+                long workloadSeed = seed + workloads.size();
+                WorkloadProcess workload = switch (kind) {
+                    case "cpu" -> new CpuWorkload(kindRate, deadline, finished, workloadSeed);
+                    case "io" -> new IoWorkload(kindRate, deadline, finished, workloadSeed);
+                    case "message" -> {
+                        MessageWorkload sender = new MessageWorkload(kindRate, deadline, finished, ring);
+                        ring.add(sender);
+                        yield sender;
+                    }
+                    default -> new MemoryWorkload(kindRate, deadline, finished, workloadSeed, pages);
+                };
+                workloads.add(workload);
+            }
+        }
+
+        System.out.printf("Running %d workloads for %d ms...%n", total, duration);
+        OS.startup(new Launcher(workloads));
+        // Sample frame usage while the workloads run; they free their memory on the way out
+        long giveUp = deadline + TimeUnit.MILLISECONDS.toNanos(GRACE_MILLIS);
+        // Simulated time stands still if the system stalls, so also bound the wait in real time
+        long realGiveUp = realStart + TimeUnit.MILLISECONDS.toNanos(duration + GRACE_MILLIS);
+        int peakFrames = 0;
+        while (!finished.await(SAMPLE_MILLIS, TimeUnit.MILLISECONDS)) {
+            peakFrames = Math.max(peakFrames, usedFrames());
+            if (Kernel.nanoTime() > giveUp || System.nanoTime() > realGiveUp) {
+                System.err.println("Some workloads did not finish in time; reporting partial results.");
+                break;
+            }
+        }
+        // Measure up to the last workload's finish rather than when this thread noticed it
+        long end = Kernel.nanoTime();
+        if (finished.getCount() == 0) {
+            end = workloads.stream().mapToLong(WorkloadProcess::getFinishedAt).max().orElse(end);
+        }
+        double seconds = (end - start) / 1e9;
+        if (Kernel.isVirtualTime()) {
+            System.out.printf("Simulated %.1f s in %.1f s of real time.%n", seconds, (System.nanoTime() - realStart) / 1e9);
+        }
+        report(workloads, seconds, peakFrames);
+        System.exit(0);
+    }
+
+    private static void report(List<WorkloadProcess> workloads, double seconds, int peakFrames) {
+        System.out.printf("%n%-8s %5s %10s %10s %9s %9s %9s %9s%n",
+                "kind", "procs", "ops", "ops/s", "p50 us", "p90 us", "p99 us", "max us");
+        long minorFaults = 0;
+        long majorFaults = 0;
+        long tlbMisses = 0;
+        long resident = 0;
+        long swapped = 0;
+        for (String kind : KINDS) {
+            int processes = 0;
+            long operations = 0;
+            LatencyRecorder latencies = new LatencyRecorder();
+            for (WorkloadProcess workload : workloads) {
+                if (!workload.getKind().equals(kind)) {
+                    continue;
+                }
+                processes++;
+                operations += workload.getOperations();
+                latencies.addAll(workload.getLatencies());
+                if (workload.getProcessId() != -1) {
+                    MemoryStats stats = OS.getMemoryStats(workload.getProcessId());
+                    if (stats != null) {
+                        minorFaults += stats.getMinorFaults();
+                        majorFaults += stats.getMajorFaults();
+                        tlbMisses += stats.getTlbMisses();
+                        resident += stats.getResidentPages();
+                        swapped += stats.getSwappedPages();
+                    }
+                }
+            }
+            if (processes == 0) {
+                continue;
+            }
+            System.out.printf("%-8s %5d %10d %10.1f %9.1f %9.1f %9.1f %9.1f%n",
+                    kind, processes, operations, operations / seconds,
+                    latencies.getPercentile(50) / 1e3, latencies.getPercentile(90) / 1e3,
+                    latencies.getPercentile(99) / 1e3, latencies.getPercentile(100) / 1e3);
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("%nfaults: %d minor (%.1f/s), %d major (%.1f/s); TLB misses: %d (%.1f/s)%n",
+                minorFaults, minorFaults / seconds, majorFaults, majorFaults / seconds,
+                tlbMisses, tlbMisses / seconds);
+        System.out.printf("memory: peak %d/%d frames in use; at exit %d pages resident, %d swapped; JVM heap %d KB%n",
+                peakFrames, Kernel.getFreelist().length, resident, swapped,
+                (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+    }
+
+    private static int usedFrames() {
+        int used = 0;
+        for (boolean free : Kernel.getFreelist()) {
+            if (!free) {
+                used++;
+            }
+        }
+        return used;
+    }
+
+    private static Map<String, String> parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got: " + arg);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String key, int fallback) {
+        String value = options.get(key);
+        return value == null ? fallback : Integer.parseInt(value);
+    }
+}
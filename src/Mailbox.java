@@ -0,0 +1,216 @@
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Per-process message queue. Any number of senders enqueue without locking;
+ * the owning process blocks on a wait queue until a message arrives.
+ * The queue is bounded: when it is full, senders either block until the
+ * receiver catches up or fail immediately, depending on the send policy.
+ */
+public class Mailbox {
+
+    public enum SendPolicy {
+        BLOCK, FAIL_FAST
+    }
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final ConcurrentLinkedQueue<KernelMessage> messages = new ConcurrentLinkedQueue<>();
+    private final WaitQueue receivers = new WaitQueue();
+    private final WaitQueue senders = new WaitQueue();
+    private final AtomicInteger count = new AtomicInteger(0);
+    private volatile int capacity;
+    private volatile SendPolicy policy;
+
+    public Mailbox() {
+        this(DEFAULT_CAPACITY, SendPolicy.BLOCK);
+    }
+
+    public Mailbox(int capacity, SendPolicy policy) {
+        setCapacity(capacity, policy);
+    }
+
+    public void setCapacity(int capacity, SendPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.policy = policy;
+        senders.wakeAll(); // A larger capacity may unblock waiting senders
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public SendPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Enqueues a message and wakes the receiver if it is blocked. If the
+     * mailbox is full the sender blocks or the message is rejected,
+     * according to the send policy.
+     *
+     * @param message the message to deliver
+     * @return true if the message was queued
+     */
+    public boolean deliver(KernelMessage message) {
+        if (!reserve(1)) {
+            return false;
+        }
+        messages.offer(message);
+        receivers.wakeOne();
+        return true;
+    }
+
+    /**
+     * Enqueues as many of the messages as fit. The receiver is woken once at
+     * the end, or earlier if the sender has to wait for room, so it can drain
+     * what is already queued.
+     *
+     * @param batch messages addressed to this mailbox, in order
+     * @return the number of messages queued
+     */
+    public int deliverAll(List<KernelMessage> batch) {
+        int delivered = 0;
+        boolean unannounced = false;
+        for (KernelMessage message : batch) {
+            if (!tryReserve(1)) {
+                if (unannounced) {
+                    receivers.wakeOne();
+                    unannounced = false;
+                }
+                if (!reserve(1)) {
+                    break;
+                }
+            }
+            messages.offer(message);
+            delivered++;
+            unannounced = true;
+        }
+        if (unannounced) {
+            receivers.wakeOne();
+        }
+        return delivered;
+    }
+
+    /**
+     * @return the oldest message, or null if the mailbox is empty
+     */
+    public KernelMessage poll() {
+        return released(messages.poll());
+    }
+
+    /**
+     * Removes the oldest message accepted by the filter, leaving others queued.
+     *
+     * @param filter selects acceptable messages
+     * @return the matching message, or null if none is queued
+     */
+    public KernelMessage poll(MessageFilter filter) {
+        if (filter.isAny()) {
+            return poll();
+        }
+        for (KernelMessage message : messages) {
+            // Only the owning process removes messages, so a match cannot be taken from under us
+            if (filter.matches(message) && messages.remove(message)) {
+                return released(message);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param filter selects acceptable messages
+     * @return true if a message accepted by the filter is queued
+     */
+    public boolean contains(MessageFilter filter) {
+        if (filter.isAny()) {
+            return !messages.isEmpty();
+        }
+        for (KernelMessage message : messages) {
+            if (filter.matches(message)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Blocks until a message is available and removes it.
+     *
+     * @return the oldest message
+     */
+    public KernelMessage receive() {
+        return receive(-1);
+    }
+
+    /**
+     * Blocks until a message is available or the timeout expires.
+     *
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return the oldest message, or null on timeout
+     */
+    public KernelMessage receive(long timeoutMillis) {
+        return receive(MessageFilter.ANY, timeoutMillis);
+    }
+
+    /**
+     * Blocks until a message accepted by the filter arrives or the timeout expires.
+     * Messages that do not match stay queued in arrival order.
+     *
+     * @param filter selects acceptable messages
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return the matching message, or null on timeout
+     */
+    public KernelMessage receive(MessageFilter filter, long timeoutMillis) {
+        KernelMessage[] received = new KernelMessage[1];
+        receivers.await(() -> (received[0] = poll(filter)) != null, timeoutMillis);
+        return received[0];
+    }
+
+    WaitQueue getWaitQueue() {
+        return receivers;
+    }
+
+    public boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    public int size() {
+        return count.get();
+    }
+
+    private boolean reserve(int slots) {
+        if (tryReserve(slots)) {
+            return true;
+        }
+        if (policy == SendPolicy.FAIL_FAST) {
+            return false;
+        }
+        senders.await(() -> tryReserve(slots));
+        return true;
+    }
+
+    private boolean tryReserve(int slots) {
+        while (true) {
+            int current = count.get();
+            if (current + slots > capacity) {
+                return false;
+            }
+            if (count.compareAndSet(current, current + slots)) {
+                return true;
+            }
+        }
+    }
+
+    private KernelMessage released(KernelMessage message) {
+        if (message != null) {
+            count.decrementAndGet();
+            senders.wakeOne();
+        }
+        return message;
+    }
+}
@@ -0,0 +1,85 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A file region mapped into the virtual address space by {@link OS#mmap}.
+ * Pages are faulted in lazily from the backing device and written back
+ * when they are dirty and either evicted or unmapped. The mapping holds a
+ * reference on the open file, so closing its descriptor does not close the
+ * file underneath it.
+ */
+public class MappedFile {
+    private static final int PAGE_SIZE = MemoryLayout.getPageSize();
+
+    private final FileDescriptorTable.Descriptor file;
+    private final int vfsId;
+    private final int ownerPid;
+    private final int fileOffset;
+    private final int startPage;
+    private final int length;
+
+    public MappedFile(FileDescriptorTable.Descriptor file, int ownerPid, int fileOffset, int startPage, int length) {
+        this.file = file;
+        this.vfsId = file.getVfsId();
+        this.ownerPid = ownerPid;
+        this.fileOffset = fileOffset;
+        this.startPage = startPage;
+        this.length = length;
+    }
+
+    public FileDescriptorTable.Descriptor getFile() {
+        return file;
+    }
+
+    public int getOwnerPid() {
+        return ownerPid;
+    }
+
+    public int getStartPage() {
+        return startPage;
+    }
+
+    public int getPageCount() {
+        return (length + PAGE_SIZE - 1) / PAGE_SIZE;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Fills a physical frame with the file contents backing a virtual page.
+     * Bytes past the end of the file or the mapping read as zero.
+     *
+     * @param virtualPage the faulting virtual page inside this mapping
+     * @param physicalPage the frame to fill
+     */
+    public void loadPage(int virtualPage, int physicalPage) {
+        byte[] memory = UserlandProcess.getMemory();
+        int frameStart = physicalPage * PAGE_SIZE;
+        int count = bytesInPage(virtualPage);
+
+        // Positional read straight into the frame; the handle's offset is left alone
+        int copied = Math.max(0, VFS.ReadAt(vfsId, ByteBuffer.wrap(memory, frameStart, count), positionOf(virtualPage)));
+        Arrays.fill(memory, frameStart + copied, frameStart + PAGE_SIZE, (byte) 0);
+    }
+
+    /**
+     * Writes a resident page back to the file.
+     *
+     * @param virtualPage the virtual page inside this mapping
+     * @param physicalPage the frame currently holding it
+     */
+    public void writeBack(int virtualPage, int physicalPage) {
+        ByteBuffer frame = ByteBuffer.wrap(UserlandProcess.getMemory(), physicalPage * PAGE_SIZE, bytesInPage(virtualPage));
+        VFS.WriteAt(vfsId, frame, positionOf(virtualPage));
+    }
+
+    private int positionOf(int virtualPage) {
+        return fileOffset + (virtualPage - startPage) * PAGE_SIZE;
+    }
+
+    private int bytesInPage(int virtualPage) {
+        return Math.min(PAGE_SIZE, length - (virtualPage - startPage) * PAGE_SIZE);
+    }
+}
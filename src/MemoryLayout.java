@@ -0,0 +1,71 @@
+/**
+ * Single source of truth for page geometry.
+ * The page size and huge page size are startup parameters: they default to
+ * the {@code os.pageSize} and {@code os.hugePageSize} system properties and
+ * may be overridden with {@link #configure} before anything reads them.
+ * The first read freezes the layout, since memory structures are sized from it.
+ */
+public final class MemoryLayout {
+    public static final int PHYSICAL_MEMORY_BYTES = 1024 * 1024; // 1 MB memory
+    public static final int VIRTUAL_MEMORY_BYTES = 1024 * 1024;
+
+    private static int pageSize;
+    private static int hugePageSize;
+    private static boolean frozen = false;
+
+    static {
+        configure(Integer.getInteger("os.pageSize", 1024), Integer.getInteger("os.hugePageSize", 64 * 1024));
+    }
+
+    private MemoryLayout() {
+    }
+
+    /**
+     * Sets the page geometry. Must be called before the OS starts.
+     *
+     * @param pageSize base page size in bytes, a power of two
+     * @param hugePageSize huge page size in bytes, a power-of-two multiple of the page size
+     */
+    public static synchronized void configure(int pageSize, int hugePageSize) {
+        if (frozen) {
+            throw new IllegalStateException("Page size must be configured before the OS starts.");
+        }
+        if (!isPowerOfTwo(pageSize) || pageSize > PHYSICAL_MEMORY_BYTES) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        if (!isPowerOfTwo(hugePageSize) || hugePageSize < pageSize || hugePageSize > PHYSICAL_MEMORY_BYTES) {
+            throw new IllegalArgumentException("Invalid huge page size: " + hugePageSize);
+        }
+        MemoryLayout.pageSize = pageSize;
+        MemoryLayout.hugePageSize = hugePageSize;
+    }
+
+    public static synchronized int getPageSize() {
+        frozen = true;
+        return pageSize;
+    }
+
+    public static synchronized int getHugePageSize() {
+        frozen = true;
+        return hugePageSize;
+    }
+
+    /**
+     * @return number of base pages covered by one huge page
+     */
+    public static int getPagesPerHugePage() {
+        return getHugePageSize() / getPageSize();
+    }
+
+    public static int getFrameCount() {
+        return PHYSICAL_MEMORY_BYTES / getPageSize();
+    }
+
+    public static int getVirtualPageCount() {
+        return VIRTUAL_MEMORY_BYTES / getPageSize();
+    }
+
+    private static boolean isPowerOfTwo(int value) {
+        return value > 0 && (value & (value - 1)) == 0;
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Per-process memory accounting kept on each PCB.
+ * Counters are updated by the kernel on allocation, faults and swapping;
+ * callers outside the kernel should work on a {@link #snapshot()}.
+ */
+public class MemoryStats {
+    private long residentPages;
+    private long swappedPages;
+    private long minorFaults;
+    private long majorFaults;
+    private long tlbMisses;
+    private long allocatedVirtualBytes;
+
+    public MemoryStats() {
+    }
+
+    // Copy constructor
+    public MemoryStats(MemoryStats other) {
+        synchronized (other) {
+            this.residentPages = other.residentPages;
+            this.swappedPages = other.swappedPages;
+            this.minorFaults = other.minorFaults;
+            this.majorFaults = other.majorFaults;
+            this.tlbMisses = other.tlbMisses;
+            this.allocatedVirtualBytes = other.allocatedVirtualBytes;
+        }
+    }
+
+    public MemoryStats snapshot() {
+        return new MemoryStats(this);
+    }
+
+    public synchronized void recordMinorFault() {
+        minorFaults++;
+        residentPages++;
+    }
+
+    public synchronized void recordMajorFault(boolean fromSwap) {
+        majorFaults++;
+        residentPages++;
+        if (fromSwap) {
+            swappedPages--;
+        }
+    }
+
+    public synchronized void recordHugePageFault(int pages) {
+        minorFaults++;
+        residentPages += pages;
+    }
+
+    public synchronized void recordEviction(boolean toSwap) {
+        residentPages--;
+        if (toSwap) {
+            swappedPages++;
+        }
+    }
+
+    public synchronized void recordRelease(int resident, int swapped) {
+        residentPages -= resident;
+        swappedPages -= swapped;
+    }
+
+    public synchronized void recordTlbMiss() {
+        tlbMisses++;
+    }
+
+    public synchronized void addAllocatedBytes(long bytes) {
+        allocatedVirtualBytes += bytes;
+    }
+
+    public synchronized long getResidentPages() {
+        return residentPages;
+    }
+
+    public synchronized long getSwappedPages() {
+        return swappedPages;
+    }
+
+    public synchronized long getMinorFaults() {
+        return minorFaults;
+    }
+
+    public synchronized long getMajorFaults() {
+        return majorFaults;
+    }
+
+    public synchronized long getTlbMisses() {
+        return tlbMisses;
+    }
+
+    public synchronized long getAllocatedVirtualBytes() {
+        return allocatedVirtualBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "MemoryStats{" +
+                "resident=" + residentPages +
+                ", swapped=" + swappedPages +
+                ", minorFaults=" + minorFaults +
+                ", majorFaults=" + majorFaults +
+                ", tlbMisses=" + tlbMisses +
+                ", allocatedBytes=" + allocatedVirtualBytes +
+                '}';
+    }
+}
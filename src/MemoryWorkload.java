@@ -0,0 +1,48 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Touches random pages of a private allocation, causing page faults, TLB
+ * misses and, under memory pressure, swapping.
+ */
+public class MemoryWorkload extends WorkloadProcess {
+
+    private static final int TOUCHES_PER_OPERATION = 16;
+
+    private final int pages;
+    private final Random random;
+    private int address = -1;
+
+    public MemoryWorkload(int ratePerSecond, long deadlineNanos, CountDownLatch finished, long seed, int pages) {
+        super("memory", ratePerSecond, deadlineNanos, finished);
+        this.pages = pages;
+        this.random = new Random(seed);
+    }
+
+    @Override
+    protected void setUp() {
+        address = OS.AllocateMemory(pages * MemoryLayout.getPageSize());
+        if (address == -1) {
+            System.err.println("Memory workload could not allocate " + pages + " pages.");
+        }
+    }
+
+    @Override
+    protected void operate() {
+        if (address == -1) {
+            return;
+        }
+        int pageSize = MemoryLayout.getPageSize();
+        for (int i = 0; i < TOUCHES_PER_OPERATION; i++) {
+            int target = address + random.nextInt(pages) * pageSize + random.nextInt(pageSize);
+            Write(target, (byte) (Read(target) + 1));
+        }
+    }
+
+    @Override
+    protected void tearDown() {
+        if (address != -1) {
+            OS.FreeMemory(address, pages * MemoryLayout.getPageSize());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import java.nio.ByteBuffer;
+
+/**
+ * An owned payload buffer for zero-copy messages.
+ * Sending a message built from a buffer transfers ownership: the sender's
+ * handle is detached and any further access to it fails.
+ */
+public final class MessageBuffer {
+    private byte[] array;
+    private int length;
+
+    MessageBuffer(byte[] array, int length) {
+        this.array = array;
+        this.length = length;
+    }
+
+    /**
+     * @return the backing array; only the first {@link #length()} bytes are payload
+     */
+    public byte[] array() {
+        ensureOwned();
+        return array;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void setLength(int length) {
+        ensureOwned();
+        if (length < 0 || length > array.length) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        this.length = length;
+    }
+
+    /**
+     * @return a writable view over the payload, sharing the backing array
+     */
+    public ByteBuffer asByteBuffer() {
+        ensureOwned();
+        return ByteBuffer.wrap(array, 0, length);
+    }
+
+    public boolean isOwned() {
+        return array != null;
+    }
+
+    /**
+     * Gives the backing array back to the pool. The buffer may not be used afterwards.
+     */
+    public void release() {
+        MessageBufferPool.release(detach());
+    }
+
+    byte[] detach() {
+        ensureOwned();
+        byte[] detached = array;
+        array = null;
+        return detached;
+    }
+
+    private void ensureOwned() {
+        if (array == null) {
+            throw new IllegalStateException("Message buffer has been transferred or released.");
+        }
+    }
+}
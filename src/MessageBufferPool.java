@@ -0,0 +1,75 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recycles payload arrays for zero-copy messages.
+ * Arrays are grouped into power-of-two size classes so a released buffer
+ * can serve any later request of the same class.
+ */
+public class MessageBufferPool {
+    private static final int MIN_SHIFT = 6;   // 64 bytes
+    private static final int MAX_SHIFT = 20;  // 1 MB
+    private static final int MAX_POOLED_PER_CLASS = 32;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<byte[]>[] pools = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+    private static final AtomicInteger[] pooledCounts = new AtomicInteger[pools.length];
+
+    static {
+        for (int i = 0; i < pools.length; i++) {
+            pools[i] = new ConcurrentLinkedQueue<>();
+            pooledCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private MessageBufferPool() {
+    }
+
+    /**
+     * Hands out a buffer with room for at least {@code size} bytes.
+     *
+     * @param size the payload length the caller intends to write
+     * @return an owned buffer whose length is set to {@code size}
+     */
+    public static MessageBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        byte[] array = null;
+        if (sizeClass != -1) {
+            array = pools[sizeClass].poll();
+            if (array != null) {
+                pooledCounts[sizeClass].decrementAndGet();
+            } else {
+                array = new byte[1 << (sizeClass + MIN_SHIFT)];
+            }
+        } else {
+            array = new byte[size];
+        }
+        return new MessageBuffer(array, size);
+    }
+
+    /**
+     * Returns an array to the pool. Arrays that do not match a size class,
+     * or that would overflow the pool, are left to the garbage collector.
+     * Pooled arrays are zeroed so one sender's data never reaches another.
+     *
+     * @param array the array to recycle
+     */
+    static void release(byte[] array) {
+        int sizeClass = sizeClass(array.length);
+        if (sizeClass == -1 || array.length != 1 << (sizeClass + MIN_SHIFT)) {
+            return;
+        }
+        if (pooledCounts[sizeClass].incrementAndGet() <= MAX_POOLED_PER_CLASS) {
+            Arrays.fill(array, (byte) 0);
+            pools[sizeClass].offer(array);
+        } else {
+            pooledCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+}
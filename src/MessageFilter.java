@@ -0,0 +1,46 @@
+/**
+ * Selects which messages a selective receive will accept.
+ * A sender of -1 matches any sender; the {@code what} range is inclusive.
+ */
+public class MessageFilter {
+    public static final MessageFilter ANY = new MessageFilter(-1, Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+    private final int senderPid;
+    private final int whatMin;
+    private final int whatMax;
+
+    public MessageFilter(int senderPid, int whatMin, int whatMax) {
+        if (whatMin > whatMax) {
+            throw new IllegalArgumentException("Empty what range: " + whatMin + ".." + whatMax);
+        }
+        this.senderPid = senderPid;
+        this.whatMin = whatMin;
+        this.whatMax = whatMax;
+    }
+
+    public static MessageFilter fromSender(int senderPid) {
+        return new MessageFilter(senderPid, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public static MessageFilter whatRange(int whatMin, int whatMax) {
+        return new MessageFilter(-1, whatMin, whatMax);
+    }
+
+    public boolean matches(KernelMessage message) {
+        return (senderPid == -1 || message.getSenderPid() == senderPid)
+                && message.getWhat() >= whatMin
+                && message.getWhat() <= whatMax;
+    }
+
+    public boolean isAny() {
+        return senderPid == -1 && whatMin == Integer.MIN_VALUE && whatMax == Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageFilter{" +
+                "senderPid=" + senderPid +
+                ", what=" + whatMin + ".." + whatMax +
+                '}';
+    }
+}
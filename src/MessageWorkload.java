@@ -0,0 +1,41 @@
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Sends a message to the next peer in a ring of message workloads each
+ * operation, and drains whatever has arrived in its own mailbox.
+ */
+public class MessageWorkload extends WorkloadProcess {
+
+    private static final int PAYLOAD_BYTES = 256;
+
+    private final List<MessageWorkload> ring;
+    private final byte[] payload = new byte[PAYLOAD_BYTES];
+    private long received = 0;
+
+    /**
+     * @param ring every message workload, in the order messages travel; shared by all of them
+     */
+    public MessageWorkload(int ratePerSecond, long deadlineNanos, CountDownLatch finished, List<MessageWorkload> ring) {
+        super("message", ratePerSecond, deadlineNanos, finished);
+        this.ring = ring;
+    }
+
+    @Override
+    protected void operate() {
+        int self = ring.indexOf(this);
+        MessageWorkload peer = ring.get((self + 1) % ring.size());
+        int peerPid = peer.getProcessId();
+        if (peerPid != -1) {
+            OS.sendMessage(new KernelMessage(getProcessId(), peerPid, (int) getOperations(), payload));
+        }
+        // Drain the mailbox; a zero timeout returns null as soon as it is empty
+        while (OS.waitForMessage(MessageFilter.ANY, 0) != null) {
+            received++;
+        }
+    }
+
+    public long getReceived() {
+        return received;
+    }
+}
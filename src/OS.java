@@ -1,8 +1,10 @@
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 public class OS {
     private static Kernel kernelInstance;
-    private static Scheduler processScheduler;
     public static CallType currentCall;
     public static final ArrayList<Object> parameters = new ArrayList<>();
     public static Object returnValue;
@@ -11,26 +13,80 @@ public class OS {
         CREATE_PROCESS, SWITCH_PROCESS, SLEEP
     }
 
-    static {
-        processScheduler = new Scheduler();
-    }
-
     public static int AllocateMemory(int size) {
-        if (size % 1024 == 0) {
+        if (size % MemoryLayout.getPageSize() == 0) {
             return kernelInstance.AllocateMemory(size);
         }
         return -1; // Invalid size
     }
 
+    public static int AllocateMemory(int size, boolean hugePages) {
+        if (!hugePages) {
+            return AllocateMemory(size);
+        }
+        if (size > 0 && size % MemoryLayout.getHugePageSize() == 0) {
+            return kernelInstance.AllocateHugeMemory(size);
+        }
+        return -1; // Invalid size
+    }
+
     public static boolean FreeMemory(int pointer, int size) {
-        if (pointer % 1024 != 0 || size % 1024 != 0) {
+        int pageSize = MemoryLayout.getPageSize();
+        if (pointer % pageSize != 0 || size % pageSize != 0) {
             return false;
         }
         return kernelInstance.FreeMemory(pointer, size);
     }
 
+    public static int mmap(int deviceId, int offset, int length) {
+        if (offset % MemoryLayout.getPageSize() != 0) {
+            return -1;
+        }
+        return kernelInstance.Mmap(deviceId, offset, length);
+    }
+
+    public static boolean munmap(int address) {
+        return kernelInstance.Munmap(address);
+    }
+
+    public static SharedChannel createChannel(int pages) {
+        return kernelInstance.CreateChannel(pages);
+    }
+
+    public static SharedChannel openChannel(int channelId) {
+        return kernelInstance.OpenChannel(channelId);
+    }
+
+    public static void closeChannel(int channelId, SharedChannel.End end) {
+        kernelInstance.CloseChannel(channelId, end);
+    }
+
+    static void await(WaitQueue queue, BooleanSupplier condition) {
+        kernelInstance.Await(queue, condition);
+    }
+
+    public static boolean futexWait(int address, int expected) {
+        return kernelInstance.FutexWait(address, expected, -1);
+    }
+
+    public static boolean futexWait(int address, int expected, long timeoutMillis) {
+        return kernelInstance.FutexWait(address, expected, timeoutMillis);
+    }
+
+    public static int futexWake(int address, int count) {
+        return kernelInstance.FutexWake(address, count);
+    }
+
     public static void getMapping(int virtualPage) {
-        PCB.getMapping(virtualPage, processScheduler);
+        kernelInstance.getMapping(virtualPage);
+    }
+
+    public static MemoryStats getMemoryStats() {
+        return kernelInstance.getMemoryStats(kernelInstance.getPid());
+    }
+
+    public static MemoryStats getMemoryStats(int pid) {
+        return kernelInstance.getMemoryStats(pid);
     }
 
     public static int getPid() {
@@ -41,17 +97,60 @@ public class OS {
         return kernelInstance.GetPidByName(name);
     }
 
-    public static void sendMessage(KernelMessage message) {
-        kernelInstance.sendMessage(message);
+    public static boolean sendMessage(KernelMessage message) {
+        return kernelInstance.sendMessage(message);
+    }
+
+    public static int sendMessages(List<KernelMessage> messages) {
+        return kernelInstance.sendMessages(messages);
+    }
+
+    public static int multicast(String group, KernelMessage message) {
+        return kernelInstance.multicast(group, message);
+    }
+
+    public static void joinGroup(String group) {
+        kernelInstance.joinGroup(group);
+    }
+
+    public static void leaveGroup(String group) {
+        kernelInstance.leaveGroup(group);
+    }
+
+    public static void setMailboxCapacity(int capacity, Mailbox.SendPolicy policy) {
+        kernelInstance.SetMailboxCapacity(capacity, policy);
     }
 
     public static KernelMessage waitForMessage() {
         return kernelInstance.WaitForMessage();
     }
 
+    public static KernelMessage waitForMessage(long timeoutMillis) {
+        return kernelInstance.WaitForMessage(timeoutMillis);
+    }
+
+    public static KernelMessage waitForMessage(MessageFilter filter, long timeoutMillis) {
+        return kernelInstance.WaitForMessage(filter, timeoutMillis);
+    }
+
+    public static PollResult poll(MessageFilter filter, int[] deviceIds, long timeoutMillis) {
+        return kernelInstance.Poll(filter, deviceIds, timeoutMillis);
+    }
+
+    public static KernelMessage call(int pid, KernelMessage message) {
+        return kernelInstance.Call(pid, message);
+    }
+
+    public static KernelMessage receive() {
+        return kernelInstance.Receive();
+    }
+
+    public static boolean reply(KernelMessage message) {
+        return kernelInstance.Reply(message);
+    }
+
     public static void sleep(int milliseconds) {
-        prepareSystemCall(CallType.SLEEP, milliseconds);
-        switchToKernel();
+        switchToKernel(CallType.SLEEP, milliseconds);
     }
 
     public static int createProcess(UserlandProcess process) {
@@ -59,10 +158,16 @@ public class OS {
     }
 
     public static int createProcess(UserlandProcess process, PCB.Priority priority) {
-        PCB pcb = new PCB(process, priority);
-        prepareSystemCall(CallType.CREATE_PROCESS, pcb);
+        return createProcess(process, priority, false);
+    }
 
-        switchToKernel();
+    /**
+     * Creates a process that optionally starts with the caller's open devices,
+     * at the same descriptor numbers.
+     */
+    public static int createProcess(UserlandProcess process, PCB.Priority priority, boolean inheritDescriptors) {
+        PCB pcb = new PCB(process, priority);
+        switchToKernel(CallType.CREATE_PROCESS, pcb, inheritDescriptors);
         System.out.println("Process created with PID: " + pcb.getPid());
         return pcb.getPid();
     }
@@ -89,26 +194,44 @@ public class OS {
         }
     }
 
-    private static void switchToKernel() {
-        kernelInstance.start();
-
-        PCB currentProcess = processScheduler.getCurrentlyRunning();
-        if (currentProcess != null) {
-            currentProcess.stop();
+    /**
+     * Traps into the kernel and waits for the call to complete. Calls are serialized on the
+     * parameter list. A process that gave up the CPU then blocks until it is dispatched again.
+     */
+    private static void switchToKernel(CallType call, Object... args) {
+        PCB caller;
+        int callerPid;
+        synchronized (parameters) {
+            caller = kernelInstance.getCurrentlyRunning();
+            callerPid = caller != null ? caller.getPid() : -1;
+            Tracer.begin(Tracer.Event.SYSCALL, call.name(), callerPid, 0);
+            prepareSystemCall(call, args);
+            kernelInstance.start();
+            kernelInstance.awaitSystemCall();
         }
-
-        if (currentProcess == null) {
-            try {
-                Thread.sleep(10); // Prevent busy-waiting
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+        boolean yielded = call == CallType.SWITCH_PROCESS || call == CallType.SLEEP;
+        if (yielded && caller != null && caller.isCurrentThread() && !caller.isDone()) {
+            caller.stop();
         }
+        Tracer.end(Tracer.Event.SYSCALL, callerPid, 0);
     }
 
     public static void switchProcess() {
-        prepareSystemCall(CallType.SWITCH_PROCESS);
-        switchToKernel();
+        switchToKernel(CallType.SWITCH_PROCESS);
+    }
+
+    /**
+     * @return the process that currently holds the CPU, or null if none does
+     */
+    static PCB getCurrentProcess() {
+        return kernelInstance.getCurrentlyRunning();
+    }
+
+    /**
+     * Yields the CPU, running the given process next if it is runnable.
+     */
+    static void switchProcess(PCB preferred) {
+        switchToKernel(CallType.SWITCH_PROCESS, preferred);
     }
 
     public static int open(String deviceName) throws Exception {
@@ -123,10 +246,42 @@ public class OS {
         return kernelInstance.Write(deviceId, data);
     }
 
+    public static int read(int deviceId, ByteBuffer destination) {
+        return kernelInstance.Read(deviceId, destination);
+    }
+
+    public static int write(int deviceId, ByteBuffer source) {
+        return kernelInstance.Write(deviceId, source);
+    }
+
+    public static long readv(int deviceId, ByteBuffer... destinations) {
+        return kernelInstance.ReadV(deviceId, destinations);
+    }
+
+    public static long writev(int deviceId, ByteBuffer... sources) {
+        return kernelInstance.WriteV(deviceId, sources);
+    }
+
+    public static int pread(int deviceId, ByteBuffer destination, long position) {
+        return kernelInstance.ReadAt(deviceId, destination, position);
+    }
+
+    public static int pwrite(int deviceId, ByteBuffer source, long position) {
+        return kernelInstance.WriteAt(deviceId, source, position);
+    }
+
+    public static void fsync(int deviceId) {
+        kernelInstance.Sync(deviceId);
+    }
+
     public static void seek(int deviceId, int position) {
         kernelInstance.Seek(deviceId, position);
     }
 
+    public static int dup(int deviceId) {
+        return kernelInstance.Dup(deviceId);
+    }
+
     public static void close(int deviceId) {
         kernelInstance.Close(deviceId);
     }
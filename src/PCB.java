@@ -1,6 +1,6 @@
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.Random;
 
 public class PCB {
@@ -10,12 +10,23 @@ public class PCB {
     private long wakeUpTime = Long.MAX_VALUE;
     private Priority priority;
     private int timeLimit = 0;
-    private final int[] deviceIds = new int[10];
+    private final FileDescriptorTable descriptors = new FileDescriptorTable();
     private String name;
-    private final LinkedList<KernelMessage> messageQueue = new LinkedList<>();
-    private boolean waitingForMessage = false;
-    private static final int PAGE_SIZE = 1024;
-    private static final VirtualToPhysicalMapping[] pageTable = new VirtualToPhysicalMapping[100];
+    private final Mailbox mailbox = new Mailbox();
+    private final AtomicBoolean waiting = new AtomicBoolean(false);
+    private final Mailbox callQueue = new Mailbox();
+    private final Mailbox replySlot = new Mailbox(Integer.MAX_VALUE, Mailbox.SendPolicy.FAIL_FAST);
+    private final AtomicInteger callTarget = new AtomicInteger(-1);
+    private final MemoryStats memoryStats = new MemoryStats();
+    // CPU accounting, updated by the scheduler on every dispatch
+    private long cpuNanos = 0;
+    private long dispatches = 0;
+    private long dispatchedAt = -1;
+    private static final int PAGE_SIZE = MemoryLayout.getPageSize();
+    // Picks the TLB entry to replace
+    private static final Random tlbRandom = Kernel.newRandom();
+    private static final VirtualToPhysicalMapping[] pageTable =
+            new VirtualToPhysicalMapping[MemoryLayout.getVirtualPageCount()];
 
     static {
         // Initialize page table entries
@@ -27,7 +38,6 @@ public class PCB {
     public PCB(UserlandProcess userlandProcess) {
         this.userlandProcess = userlandProcess;
         this.pid = nextPid++;
-        Arrays.fill(deviceIds, -1);
         this.name = userlandProcess.getClass().getSimpleName();
     }
 
@@ -43,24 +53,55 @@ public class PCB {
     public static VirtualToPhysicalMapping getMapping(int virtualPage, Scheduler scheduler) {
         VirtualToPhysicalMapping mapping = pageTable[virtualPage];
 
-        if (mapping.physicalPageNumber == -1) {
-            int physicalPage = scheduler.findFreePhysicalPage();
+        if (mapping.pageSpan > 1) {
+            // Huge pages are populated at allocation; one entry covers the whole span
+            updateTLB(mapping.virtualBasePage, mapping.physicalPageNumber, mapping.pageSpan);
+            return mapping;
+        }
 
-            if (physicalPage == -1) {
-                physicalPage = scheduler.handlePageSwap(virtualPage);
+        if (mapping.physicalPageNumber == -1) {
+            Tracer.begin(Tracer.Event.PAGE_FAULT, virtualPage, -1);
+            try {
+                handlePageFault(mapping, virtualPage, scheduler);
+            } finally {
+                Tracer.end(Tracer.Event.PAGE_FAULT, virtualPage, mapping.physicalPageNumber);
             }
+        }
 
-            mapping.physicalPageNumber = physicalPage;
+        updateTLB(virtualPage, mapping.physicalPageNumber, 1);
+        return mapping;
+    }
 
-            if (mapping.onDiskPageNumber != -1) {
-                loadDataFromDisk(mapping.onDiskPageNumber, physicalPage);
-            } else {
-                initializePhysicalPage(physicalPage);
-            }
+    private static void handlePageFault(VirtualToPhysicalMapping mapping, int virtualPage, Scheduler scheduler) {
+        if (mapping.ownerPid == -1) {
+            mapping.ownerPid = scheduler.getPid();
         }
+        PCB owner = scheduler.getProcess(mapping.ownerPid);
+        int physicalPage = scheduler.findFreePhysicalPage();
 
-        updateTLB(virtualPage, mapping.physicalPageNumber);
-        return mapping;
+        if (physicalPage == -1) {
+            physicalPage = scheduler.handlePageSwap(virtualPage);
+        }
+
+        mapping.physicalPageNumber = physicalPage;
+
+        if (mapping.mappedFile != null) {
+            mapping.mappedFile.loadPage(virtualPage, physicalPage);
+            mapping.dirty = false;
+            if (owner != null) {
+                owner.getMemoryStats().recordMajorFault(false);
+            }
+        } else if (mapping.onDiskPageNumber != -1) {
+            loadDataFromSwap(mapping.onDiskPageNumber, physicalPage, scheduler);
+            if (owner != null) {
+                owner.getMemoryStats().recordMajorFault(true);
+            }
+        } else {
+            initializePhysicalPage(physicalPage);
+            if (owner != null) {
+                owner.getMemoryStats().recordMinorFault();
+            }
+        }
     }
 
     public static void initializePhysicalPage(int physicalPage) {
@@ -73,47 +114,140 @@ public class PCB {
         }
     }
 
-    public static void loadDataFromDisk(int diskPageNumber, int physicalPage) {
-        int offset = diskPageNumber * PAGE_SIZE;
-
+    /**
+     * Restores a swapped page, preferring the compressed swap cache over the swap file.
+     *
+     * @param diskPageNumber the swap slot holding the page
+     * @param physicalPage the frame to fill
+     * @param scheduler owner of the compressed tier, consulted before the swap file
+     */
+    public static void loadDataFromSwap(int diskPageNumber, int physicalPage, Scheduler scheduler) {
+        Tracer.begin(Tracer.Event.SWAP_IN, diskPageNumber, physicalPage);
         try {
-            byte[] data = VFS.Read(offset, PAGE_SIZE);
+            byte[] page = new byte[PAGE_SIZE];
+            if (!scheduler.getSwapCache().load(diskPageNumber, page)) {
+                loadDataFromDisk(diskPageNumber, page, scheduler);
+            }
+            Kernel.setPhysicalMemory(physicalPage, page);
+        } finally {
+            Tracer.end(Tracer.Event.SWAP_IN, diskPageNumber, physicalPage);
+        }
+    }
 
-            if (data.length != PAGE_SIZE) {
+    public static void loadDataFromDisk(int diskPageNumber, byte[] page, Scheduler scheduler) {
+        try {
+            if (!scheduler.readDataFromDisk(diskPageNumber, page)) {
                 throw new IOException("Insufficient data read from disk.");
             }
-
-            System.arraycopy(data, 0, Kernel.getPhysicalMemory(physicalPage), 0, PAGE_SIZE);
         } catch (IOException e) {
             System.err.println("Disk read error: " + e.getMessage());
         }
     }
 
-    private static void updateTLB(int virtualPage, int physicalPage) {
-        Random random = new Random();
-        int tlbIndex = random.nextInt(2);
+    private static void updateTLB(int virtualPage, int physicalPage, int pageCount) {
+        int tlbIndex = tlbRandom.nextInt(2);
         UserlandProcess.getTlb()[tlbIndex][0] = virtualPage;
         UserlandProcess.getTlb()[tlbIndex][1] = physicalPage;
+        UserlandProcess.getTlb()[tlbIndex][2] = pageCount;
     }
 
-    public boolean isWaitingForMessage() {
-        return waitingForMessage;
+    /**
+     * @return true while the process is blocked in the kernel and off the run queues
+     */
+    public boolean isWaiting() {
+        return waiting.get();
     }
 
-    public void setWaitingForMessage(boolean waiting) {
-        this.waitingForMessage = waiting;
+    public void setWaiting(boolean waiting) {
+        this.waiting.set(waiting);
+    }
+
+    /**
+     * Clears the waiting flag if it is set, so only one wake-up restores the process.
+     *
+     * @return true if the process was waiting and this call claimed the wake-up
+     */
+    public boolean claimWakeup() {
+        return waiting.compareAndSet(true, false);
     }
 
     public void addMessage(KernelMessage message) {
-        this.messageQueue.add(message);
+        mailbox.deliver(message);
     }
 
-    public synchronized KernelMessage dequeueMessage() {
-        return messageQueue.poll();
+    public KernelMessage dequeueMessage() {
+        return mailbox.poll();
     }
 
-    public LinkedList<KernelMessage> getMessageQueue() {
-        return messageQueue;
+    public Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * @return synchronous requests waiting for this process to receive them
+     */
+    public Mailbox getCallQueue() {
+        return callQueue;
+    }
+
+    /**
+     * @return the slot a server's reply is delivered into while this process is blocked in a call
+     */
+    public Mailbox getReplySlot() {
+        return replySlot;
+    }
+
+    /**
+     * @return the pid this process is blocked calling, or -1 if it is not in a call
+     */
+    public int getCallTarget() {
+        return callTarget.get();
+    }
+
+    public void setCallTarget(int callTarget) {
+        this.callTarget.set(callTarget);
+    }
+
+    /**
+     * Ends a call to the given server, so only one reply or failure completes it.
+     *
+     * @return true if this process was calling the server and this call ended it
+     */
+    public boolean completeCall(int serverPid) {
+        return callTarget.compareAndSet(serverPid, -1);
+    }
+
+    /**
+     * Marks the process as given the CPU at the given time.
+     */
+    public synchronized void recordDispatch(long nanoTime) {
+        dispatches++;
+        dispatchedAt = nanoTime;
+    }
+
+    /**
+     * Charges the process for the time since its last dispatch.
+     */
+    public synchronized void recordDeschedule(long nanoTime) {
+        if (dispatchedAt != -1) {
+            cpuNanos += nanoTime - dispatchedAt;
+            dispatchedAt = -1;
+        }
+    }
+
+    /**
+     * @return time spent holding the CPU, including the current slice if running
+     */
+    public synchronized long getCpuNanos() {
+        return dispatchedAt == -1 ? cpuNanos : cpuNanos + Kernel.nanoTime() - dispatchedAt;
+    }
+
+    public synchronized long getDispatches() {
+        return dispatches;
+    }
+
+    public MemoryStats getMemoryStats() {
+        return memoryStats;
     }
 
     public String getName() {
@@ -124,8 +258,8 @@ public class PCB {
         this.name = name;
     }
 
-    public int[] getDeviceIds() {
-        return deviceIds;
+    public FileDescriptorTable getDescriptors() {
+        return descriptors;
     }
 
     public UserlandProcess getUlp() {
@@ -174,15 +308,15 @@ public class PCB {
         resetTimeSliceExceedances();
     }
 
+    /**
+     * Blocks the process's own thread until the scheduler starts it again.
+     */
     public void stop() {
         userlandProcess.stop();
-        while (!userlandProcess.isStopped()) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+    }
+
+    public boolean isCurrentThread() {
+        return userlandProcess.isCurrentThread();
     }
 
     public boolean isDone() {
@@ -13,15 +13,13 @@ public class Ping extends UserlandProcess {
 
         // Communicate with Pong process 5 times
         for (int i = 0; i < 5; i++) {
-            // Send a message to Pong
+            // Call Pong and block until it replies
             KernelMessage outgoingMessage = new KernelMessage(OS.getPid(), pongPid, i, new byte[0]);
-            OS.sendMessage(outgoingMessage);
-
-            // Sleep briefly before awaiting a response
-            OS.sleep(20);
-
-            // Wait for a response from Pong
-            KernelMessage incomingMessage = OS.waitForMessage();
+            KernelMessage incomingMessage = OS.call(pongPid, outgoingMessage);
+            if (incomingMessage == null) {
+                System.out.println("Pong process went away. Exiting.");
+                return;
+            }
 
             // Log the details of the received message
             System.out.printf(
@@ -0,0 +1,224 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named in-memory pipes for streaming between processes.
+ * Opened as {@code "pipe <name> read"} or {@code "pipe <name> write"}; every
+ * open of the same name shares one bounded ring buffer. Reads block while
+ * the pipe is empty and writes block while it is full, descheduling the process
+ * instead of spinning. Once every writer has closed, reads drain the
+ * remaining data and then return an empty array for end-of-file. Once every
+ * reader has closed, writes fail as a broken pipe; until the first reader
+ * opens, writers fill the buffer and then wait for one.
+ */
+public class PipeDevice implements Devices {
+
+    private static final int PIPE_CAPACITY = 64 * 1024;
+
+    // Pipes are shared between processes, so the registry outlives any one device instance
+    private static final Map<String, Pipe> namedPipes = new HashMap<>();
+
+    // Handle tables grow as needed, since one instance is shared by every process using pipes
+    private volatile Pipe[] pipes = new Pipe[10];
+    private volatile boolean[] writeEnds = new boolean[10];
+
+    private static class Pipe {
+        final String name;
+        final byte[] buffer = new byte[PIPE_CAPACITY];
+        final WaitQueue readers = new WaitQueue();
+        final WaitQueue writers = new WaitQueue();
+        int head = 0;
+        int size = 0;
+        int openReaders = 0;
+        int openWriters = 0;
+        boolean writerSeen = false;
+        boolean readerSeen = false;
+
+        Pipe(String name) {
+            this.name = name;
+        }
+
+        synchronized boolean isEndOfFile() {
+            return size == 0 && writerSeen && openWriters == 0;
+        }
+
+        synchronized boolean canRead() {
+            return size > 0 || isEndOfFile();
+        }
+
+        synchronized boolean isBroken() {
+            return readerSeen && openReaders == 0;
+        }
+
+        synchronized boolean canWrite() {
+            return size < buffer.length || isBroken();
+        }
+
+        synchronized int take(ByteBuffer destination) {
+            int count = Math.min(destination.remaining(), size);
+            for (int copied = 0; copied < count; ) {
+                int chunk = Math.min(count - copied, buffer.length - head);
+                destination.put(buffer, head, chunk);
+                head = (head + chunk) % buffer.length;
+                copied += chunk;
+            }
+            size -= count;
+            return count;
+        }
+
+        synchronized int put(ByteBuffer source) {
+            int count = Math.min(source.remaining(), buffer.length - size);
+            int tail = (head + size) % buffer.length;
+            for (int copied = 0; copied < count; ) {
+                int chunk = Math.min(count - copied, buffer.length - tail);
+                source.get(buffer, tail, chunk);
+                tail = (tail + chunk) % buffer.length;
+                copied += chunk;
+            }
+            size += count;
+            return count;
+        }
+    }
+
+    @Override
+    public synchronized int Open(String details) throws Exception {
+        String[] parts = details.trim().split("\\s+");
+        if (parts.length != 2 || parts[0].isEmpty()) {
+            throw new IllegalArgumentException("Pipe must be opened as \"<name> read|write\": " + details);
+        }
+        boolean writeEnd = switch (parts[1].toLowerCase()) {
+            case "read" -> false;
+            case "write" -> true;
+            default -> throw new IllegalArgumentException("Unknown pipe end: " + parts[1]);
+        };
+
+        int id = 0;
+        while (id < pipes.length && pipes[id] != null) {
+            id++;
+        }
+        if (id == pipes.length) {
+            writeEnds = Arrays.copyOf(writeEnds, id * 2);
+            pipes = Arrays.copyOf(pipes, id * 2);
+        }
+
+        Pipe pipe;
+        synchronized (namedPipes) {
+            pipe = namedPipes.computeIfAbsent(parts[0], Pipe::new);
+            synchronized (pipe) {
+                if (writeEnd) {
+                    pipe.openWriters++;
+                    pipe.writerSeen = true;
+                } else {
+                    pipe.openReaders++;
+                    pipe.readerSeen = true;
+                }
+            }
+        }
+        writeEnds[id] = writeEnd;
+        pipes[id] = pipe;
+        return id;
+    }
+
+    @Override
+    public synchronized void Close(int id) {
+        if (!isValidPipe(id)) {
+            return;
+        }
+        Pipe pipe = pipes[id];
+        synchronized (namedPipes) {
+            synchronized (pipe) {
+                if (writeEnds[id]) {
+                    pipe.openWriters--;
+                } else {
+                    pipe.openReaders--;
+                }
+                if (pipe.openReaders == 0 && pipe.openWriters == 0) {
+                    namedPipes.remove(pipe.name);
+                }
+            }
+        }
+        pipes[id] = null;
+        // Readers may now see end-of-file and writers may now see a broken pipe
+        pipe.readers.wakeAll();
+        pipe.writers.wakeAll();
+        VFS.notifyReadiness();
+    }
+
+    @Override
+    public byte[] Read(int id, int size) {
+        if (size <= 0) {
+            return new byte[0];
+        }
+        byte[] data = new byte[size];
+        int count = Read(id, ByteBuffer.wrap(data));
+        if (count == size) {
+            return data;
+        }
+        return Arrays.copyOf(data, Math.max(count, 0));
+    }
+
+    @Override
+    public int Read(int id, ByteBuffer destination) {
+        if (!isValidPipe(id) || writeEnds[id]) {
+            return -1;
+        }
+        if (!destination.hasRemaining()) {
+            return 0;
+        }
+        Pipe pipe = pipes[id];
+        int count = 0;
+        // Another reader may drain the pipe between the wake-up and the take
+        while (count == 0 && !pipe.isEndOfFile()) {
+            pipe.readers.await(pipe::canRead);
+            count = pipe.take(destination);
+        }
+        pipe.writers.wakeAll();
+        return count == 0 ? -1 : count;
+    }
+
+    @Override
+    public void Seek(int id, int to) {
+        // Pipes are sequential; seeking is not supported
+    }
+
+    @Override
+    public int Write(int id, byte[] data) {
+        if (!isValidPipe(id) || !writeEnds[id] || data == null) {
+            return 0;
+        }
+        return Write(id, ByteBuffer.wrap(data));
+    }
+
+    @Override
+    public int Write(int id, ByteBuffer source) {
+        if (!isValidPipe(id) || !writeEnds[id]) {
+            return -1;
+        }
+        Pipe pipe = pipes[id];
+        int written = 0;
+        while (source.hasRemaining()) {
+            pipe.writers.await(pipe::canWrite);
+            synchronized (pipe) {
+                if (pipe.isBroken()) {
+                    return written > 0 ? written : -1; // Broken pipe
+                }
+                written += pipe.put(source);
+            }
+            pipe.readers.wakeAll();
+            VFS.notifyReadiness();
+        }
+        return written;
+    }
+
+    @Override
+    public boolean IsReadable(int id) {
+        return isValidPipe(id) && !writeEnds[id] && pipes[id].canRead();
+    }
+
+    private boolean isValidPipe(int id) {
+        Pipe[] table = pipes;
+        return id >= 0 && id < table.length && table[id] != null;
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Outcome of {@link OS#poll}: whether a matching message is waiting and
+ * which of the polled device ids are ready to read.
+ */
+public class PollResult {
+    private final boolean messageReady;
+    private final int[] readyDevices;
+
+    public PollResult(boolean messageReady, int[] readyDevices) {
+        this.messageReady = messageReady;
+        this.readyDevices = readyDevices;
+    }
+
+    public boolean isMessageReady() {
+        return messageReady;
+    }
+
+    /**
+     * @return the process-local device ids that are ready, in the order they were polled
+     */
+    public int[] getReadyDevices() {
+        return readyDevices.clone();
+    }
+
+    /**
+     * @return true if nothing became ready before the timeout
+     */
+    public boolean isTimedOut() {
+        return !messageReady && readyDevices.length == 0;
+    }
+}
@@ -4,8 +4,8 @@ public class Pong extends UserlandProcess {
         while (true) {
             System.out.println("I am PONG");
 
-            // Wait for a message from another process
-            KernelMessage incomingMessage = OS.waitForMessage();
+            // Wait for a call from another process
+            KernelMessage incomingMessage = OS.receive();
 
             // Log the received message details
             if (incomingMessage.getWhat() == 0) {
@@ -27,8 +27,8 @@ public class Pong extends UserlandProcess {
                     new byte[0] // Empty payload
             );
 
-            // Send the reply back
-            OS.sendMessage(replyMessage);
+            // Reply, handing the CPU straight back to the caller
+            OS.reply(replyMessage);
 
             // Yield control to allow other processes to execute
             cooperate();
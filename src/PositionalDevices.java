@@ -0,0 +1,11 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Devices that support pread/pwrite-style I/O at an absolute position.
+ * Positional calls do not use or move the handle's offset, so they are safe
+ * to issue concurrently on the same handle.
+ */
+public interface PositionalDevices {
+    int ReadAt(int id, ByteBuffer destination, long position);
+    int WriteAt(int id, ByteBuffer source, long position);
+}
@@ -0,0 +1,258 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Read-only views of kernel state, in the spirit of procfs. Opened as
+ * {@code "proc <view>"}, where the view is one of:
+ * <ul>
+ *   <li>{@code processes} (the default): one line per process with its state and counters</li>
+ *   <li>{@code <pid>}: every counter of one process, as {@code key: value} lines</li>
+ *   <li>{@code memory}: physical frame usage</li>
+ *   <li>{@code swap}: swap slots, swapped pages and the compressed swap cache</li>
+ *   <li>{@code devices}: registered drivers and the open-file table</li>
+ * </ul>
+ * The text of a view is generated on the first read and then served from
+ * that snapshot, so a reader sees one consistent picture however small its
+ * reads are. Seeking back to 0 discards the snapshot and the next read
+ * regenerates it.
+ */
+public class ProcDevice implements Devices {
+
+    private static final String DEFAULT_VIEW = "processes";
+
+    private final Scheduler scheduler;
+    // Handle table grows as needed, since one instance is shared by every process
+    private Handle[] handles = new Handle[10];
+
+    private static class Handle {
+        final String view;
+        // The process reported on by a per-process view, otherwise -1
+        final int pid;
+        byte[] snapshot;
+        int position = 0;
+
+        Handle(String view, int pid) {
+            this.view = view;
+            this.pid = pid;
+        }
+    }
+
+    /**
+     * @param scheduler the scheduler of the kernel being reported on
+     */
+    public ProcDevice(Scheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public synchronized int Open(String view) {
+        String name = view == null || view.isBlank() ? DEFAULT_VIEW : view.trim();
+        int pid = parsePid(name);
+        if (!isNamedView(name) && pid == -1) {
+            System.err.println("Unknown proc view: " + name);
+            return -1;
+        }
+        int id = 0;
+        while (id < handles.length && handles[id] != null) {
+            id++;
+        }
+        if (id == handles.length) {
+            handles = Arrays.copyOf(handles, id * 2);
+        }
+        handles[id] = new Handle(name, pid);
+        return id;
+    }
+
+    @Override
+    public synchronized void Close(int id) {
+        if (isOpen(id)) {
+            handles[id] = null;
+        }
+    }
+
+    @Override
+    public byte[] Read(int id, int size) {
+        byte[] buffer = new byte[Math.max(0, size)];
+        int count = Read(id, ByteBuffer.wrap(buffer));
+        return count <= 0 ? new byte[0] : Arrays.copyOf(buffer, count);
+    }
+
+    @Override
+    public synchronized int Read(int id, ByteBuffer destination) {
+        if (!isOpen(id)) {
+            return -1;
+        }
+        Handle handle = handles[id];
+        if (handle.snapshot == null) {
+            handle.snapshot = render(handle).getBytes(StandardCharsets.UTF_8);
+        }
+        int count = Math.min(destination.remaining(), handle.snapshot.length - handle.position);
+        if (count <= 0) {
+            return destination.hasRemaining() ? -1 : 0;
+        }
+        destination.put(handle.snapshot, handle.position, count);
+        handle.position += count;
+        return count;
+    }
+
+    @Override
+    public synchronized void Seek(int id, int to) {
+        if (isOpen(id)) {
+            Handle handle = handles[id];
+            handle.position = Math.max(0, to);
+            if (to == 0) {
+                handle.snapshot = null;
+            }
+        }
+    }
+
+    @Override
+    public int Write(int id, byte[] data) {
+        return -1; // Read-only
+    }
+
+    private boolean isOpen(int id) {
+        return id >= 0 && id < handles.length && handles[id] != null;
+    }
+
+    private static boolean isNamedView(String view) {
+        return switch (view) {
+            case "processes", "memory", "swap", "devices" -> true;
+            default -> false;
+        };
+    }
+
+    // A per-process view is a pid in plain decimal digits; anything else, including overflow, is -1
+    private static int parsePid(String view) {
+        if (!view.chars().allMatch(c -> c >= '0' && c <= '9')) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(view);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String render(Handle handle) {
+        return switch (handle.view) {
+            case "processes" -> renderProcesses();
+            case "memory" -> renderMemory();
+            case "swap" -> renderSwap();
+            case "devices" -> renderDevices();
+            default -> renderProcess(handle.pid);
+        };
+    }
+
+    private String renderProcesses() {
+        StringBuilder text = new StringBuilder(String.format("%5s %-16s %-11s %-8s %10s %10s %8s %8s %8s %8s %8s %4s%n",
+                "PID", "NAME", "PRIORITY", "STATE", "CPU_MS", "SWITCHES", "RSS", "SWAP", "MINFLT", "MAJFLT", "TLBMISS", "FDS"));
+        for (PCB process : scheduler.getProcessSnapshot()) {
+            MemoryStats memory = process.getMemoryStats().snapshot();
+            text.append(String.format("%5d %-16s %-11s %-8s %10d %10d %8d %8d %8d %8d %8d %4d%n",
+                    process.getPid(), process.getName(), process.getPriority(), scheduler.getState(process),
+                    process.getCpuNanos() / 1_000_000, process.getDispatches(),
+                    memory.getResidentPages(), memory.getSwappedPages(), memory.getMinorFaults(),
+                    memory.getMajorFaults(), memory.getTlbMisses(), process.getDescriptors().size()));
+        }
+        return text.toString();
+    }
+
+    private String renderProcess(int pid) {
+        PCB process = scheduler.getProcess(pid);
+        if (process == null) {
+            return "";
+        }
+        MemoryStats memory = process.getMemoryStats().snapshot();
+        return "pid: " + process.getPid() + "\n"
+                + "name: " + process.getName() + "\n"
+                + "priority: " + process.getPriority() + "\n"
+                + "state: " + scheduler.getState(process) + "\n"
+                + "cpuNanos: " + process.getCpuNanos() + "\n"
+                + "dispatches: " + process.getDispatches() + "\n"
+                + "residentPages: " + memory.getResidentPages() + "\n"
+                + "swappedPages: " + memory.getSwappedPages() + "\n"
+                + "minorFaults: " + memory.getMinorFaults() + "\n"
+                + "majorFaults: " + memory.getMajorFaults() + "\n"
+                + "tlbMisses: " + memory.getTlbMisses() + "\n"
+                + "allocatedBytes: " + memory.getAllocatedVirtualBytes() + "\n"
+                + "queuedMessages: " + process.getMailbox().size() + "\n"
+                + "openDescriptors: " + process.getDescriptors().size() + "\n";
+    }
+
+    private String renderMemory() {
+        boolean[] freeList = Kernel.getFreelist();
+        int free = 0;
+        for (boolean frameFree : freeList) {
+            if (frameFree) {
+                free++;
+            }
+        }
+        return "pageSize: " + MemoryLayout.getPageSize() + "\n"
+                + "hugePageSize: " + MemoryLayout.getHugePageSize() + "\n"
+                + "frames: " + freeList.length + "\n"
+                + "freeFrames: " + free + "\n"
+                + "usedFrames: " + (freeList.length - free) + "\n";
+    }
+
+    private String renderSwap() {
+        int swapped = 0;
+        for (VirtualToPhysicalMapping mapping : PCB.getPagetable()) {
+            if (mapping != null && mapping.physicalPageNumber == -1
+                    && mapping.onDiskPageNumber != -1 && mapping.mappedFile == null) {
+                swapped++;
+            }
+        }
+        SwapCache cache = scheduler.getSwapCache();
+        return "slotsAllocated: " + scheduler.getSwapSlotsAllocated() + "\n"
+                + "pagesSwapped: " + swapped + "\n"
+                + "cachedPages: " + cache.getCachedPages() + "\n"
+                + "cacheUsedBytes: " + cache.getUsedBytes() + "\n"
+                + String.format("cacheHitRate: %.3f%n", cache.getHitRate())
+                + String.format("cacheCompressionRatio: %.2f%n", cache.getCompressionRatio())
+                + "cacheWriteBacks: " + cache.getWriteBacks() + "\n";
+    }
+
+    private String renderDevices() {
+        Map<String, Devices> drivers = DriverRegistry.getDrivers();
+        StringBuilder text = new StringBuilder("drivers:\n");
+        for (Map.Entry<String, Devices> driver : drivers.entrySet()) {
+            text.append("  ").append(driver.getKey()).append(' ').append(driver.getValue().getClass().getSimpleName());
+            if (driver.getValue() instanceof BlockFileSystem fileSystem) {
+                text.append(' ').append(fileSystem);
+            } else if (driver.getValue() instanceof FakeFileSystem files && files.getJournal() != null) {
+                text.append(' ').append(files.getJournal());
+            }
+            text.append('\n');
+        }
+        text.append("blockCache: ").append(VFS.getBlockCache()).append('\n');
+        text.append("open:\n");
+        for (Map.Entry<Integer, Map.Entry<Devices, Integer>> open : VFS.getOpenDevices().entrySet()) {
+            text.append(String.format("  %4d %-8s %d%n", open.getKey(),
+                    typeOf(drivers, open.getValue().getKey()), open.getValue().getValue()));
+        }
+        return text.toString();
+    }
+
+    private static String typeOf(Map<String, Devices> drivers, Devices devices) {
+        for (Map.Entry<String, Devices> driver : drivers.entrySet()) {
+            if (driver.getValue() == devices) {
+                return driver.getKey();
+            }
+        }
+        return devices.getClass().getSimpleName();
+    }
+
+    @Override
+    public synchronized String toString() {
+        int open = 0;
+        for (Handle handle : handles) {
+            if (handle != null) {
+                open++;
+            }
+        }
+        return "ProcDevice{open=" + open + "}";
+    }
+}
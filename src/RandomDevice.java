@@ -1,44 +1,109 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Random;
 
 public class RandomDevice implements Devices {
 
-    // Array to manage Random instances for each opened device
-    private final Random[] randomDevices = new Random[10];
+    private static final String FAST_MODE = "fast";
+    private static final int SKIP_CHUNK = 4096;
 
+    // Array to manage Random instances for each opened device; grows as the shared driver fills up
+    private volatile Random[] randomDevices = new Random[10];
+    // Counter-based streams for devices opened in fast mode, indexed like randomDevices
+    private volatile CounterRandom[] fastDevices = new CounterRandom[10];
+
+    /**
+     * Opens a random device. {@code "<seed>"} gives a {@link Random} stream;
+     * {@code "fast <seed>"} gives a {@link CounterRandom} stream that fills
+     * buffers a word at a time and seeks to any byte offset in constant time.
+     */
     @Override
-    public int Open(String seed) {
-        for (int i = 0; i < randomDevices.length; i++) {
-            if (randomDevices[i] == null) {
-                // Initialize a new Random instance with or without a seed
-                randomDevices[i] = createRandomInstance(seed);
-                return i; // Return the index of the newly opened device
-            }
+    public synchronized int Open(String seed) {
+        String[] parts = seed == null ? new String[0] : seed.trim().split("\\s+");
+        boolean fast = parts.length > 0 && parts[0].equals(FAST_MODE);
+
+        int id = 0;
+        while (id < randomDevices.length && (randomDevices[id] != null || fastDevices[id] != null)) {
+            id++;
         }
-        return -1; // Return -1 if no slots are available
+        if (id == randomDevices.length) {
+            fastDevices = Arrays.copyOf(fastDevices, id * 2);
+            randomDevices = Arrays.copyOf(randomDevices, id * 2);
+        }
+        if (fast) {
+            fastDevices[id] = createFastInstance(parts.length > 1 ? parts[1] : null);
+        } else {
+            // Initialize a new Random instance with or without a seed
+            randomDevices[id] = createRandomInstance(seed);
+        }
+        return id; // Return the index of the newly opened device
     }
 
     @Override
-    public void Close(int id) {
+    public synchronized void Close(int id) {
         if (isValidDeviceId(id)) {
             randomDevices[id] = null; // Close the device by nullifying its Random instance
+            fastDevices[id] = null;
         }
     }
 
     @Override
     public byte[] Read(int id, int size) {
-        if (isValidDeviceId(id) && randomDevices[id] != null) {
+        if (isOpen(id) && size > 0) {
             byte[] buffer = new byte[size];
-            randomDevices[id].nextBytes(buffer); // Populate the buffer with random bytes
+            Read(id, ByteBuffer.wrap(buffer)); // Populate the buffer with random bytes
             return buffer;
         }
-        return null; // Return null if the device ID is invalid or uninitialized
+        return new byte[0]; // Return an empty array if the device ID is invalid or uninitialized
     }
 
+    /**
+     * Fills the buffer in place. Produces the same byte stream as
+     * {@link Random#nextBytes}: each int supplies up to four bytes, low byte first.
+     * Fast-mode devices fill straight from their counter-based stream.
+     */
+    @Override
+    public int Read(int id, ByteBuffer destination) {
+        if (!isOpen(id)) {
+            return -1;
+        }
+        CounterRandom fast = fastDevices[id];
+        if (fast != null) {
+            return fast.fill(destination);
+        }
+        Random random = randomDevices[id];
+        int count = destination.remaining();
+        for (int i = 0; i < count; ) {
+            int value = random.nextInt();
+            for (int n = Math.min(count - i, 4); n-- > 0; value >>= 8, i++) {
+                destination.put((byte) value);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Fast-mode devices jump to the absolute byte offset {@code to}, so the
+     * same seed and offset always give the same bytes. Other devices skip
+     * {@code to} bytes ahead, as before, without allocating the skipped bytes.
+     */
     @Override
     public void Seek(int id, int to) {
-        if (isValidDeviceId(id) && randomDevices[id] != null) {
-            byte[] buffer = new byte[to];
-            randomDevices[id].nextBytes(buffer); // Generate random bytes to simulate seeking
+        if (!isOpen(id)) {
+            return;
+        }
+        CounterRandom fast = fastDevices[id];
+        if (fast != null) {
+            fast.seek(to);
+            return;
+        }
+        // Chunks are a multiple of four bytes, so this consumes the same ints as one big nextBytes
+        byte[] scratch = new byte[Math.min(to, SKIP_CHUNK)];
+        for (int skipped = 0; skipped < to; skipped += scratch.length) {
+            if (to - skipped < scratch.length) {
+                scratch = new byte[to - skipped];
+            }
+            randomDevices[id].nextBytes(scratch); // Generate random bytes to simulate seeking
         }
     }
 
@@ -64,7 +129,24 @@ public class RandomDevice implements Devices {
                 // If the seed is not a valid integer, fall back to default constructor
             }
         }
-        return new Random();
+        return Kernel.newRandom();
+    }
+
+    /**
+     * Helper method to create a fast-mode stream, optionally seeded.
+     *
+     * @param seed the seed as a string, or null for a random seed
+     * @return a new stream positioned at offset zero
+     */
+    private CounterRandom createFastInstance(String seed) {
+        if (seed != null && !seed.isEmpty()) {
+            try {
+                return new CounterRandom(Long.parseLong(seed));
+            } catch (NumberFormatException e) {
+                // If the seed is not a valid long, fall back to a random seed
+            }
+        }
+        return new CounterRandom(Kernel.newRandom().nextLong());
     }
 
     /**
@@ -76,4 +158,8 @@ public class RandomDevice implements Devices {
     private boolean isValidDeviceId(int id) {
         return id >= 0 && id < randomDevices.length;
     }
+
+    private boolean isOpen(int id) {
+        return isValidDeviceId(id) && (randomDevices[id] != null || fastDevices[id] != null);
+    }
 }
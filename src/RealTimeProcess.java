@@ -3,12 +3,7 @@ public class RealTimeProcess extends UserlandProcess {
     public void main() {
         while (true) {
             System.out.println("RealTimeProcess executing...");
-            try {
-                Thread.sleep(50);
-
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+            work(50);
             OS.sleep(100);
             cooperate();
 
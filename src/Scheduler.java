@@ -4,23 +4,32 @@ import java.time.Clock;
 
 public class Scheduler {
 
-    private PCB currentlyRunning;
-    private final Clock clock = Clock.systemDefaultZone();
+    // Upper bound on how long an idle kernel waits before checking the sleeping queue again
+    private static final long IDLE_WAIT_MILLIS = 10;
+
+    private volatile PCB currentlyRunning;
+    private final Clock clock = Kernel.getClock();
     private final LinkedList<PCB> realTimeQueue = new LinkedList<>();
     private final LinkedList<PCB> interactiveQueue = new LinkedList<>();
     private final LinkedList<PCB> backgroundQueue = new LinkedList<>();
     private final LinkedList<PCB> sleepingQueue = new LinkedList<>();
     private final List<PCB> allProcesses = new LinkedList<>();
-    private final Random random = new Random();
+    private final Random random = Kernel.newRandom();
     private final Kernel kernel;
+    private final SwapCache swapCache;
     private int nextFreeBlock = 0;
 
     public Scheduler(Kernel kernel) {
         this.kernel = kernel;
+        this.swapCache = new SwapCache(this::writeDataToDisk, MemoryLayout.getPageSize());
     }
 
     public Scheduler() {
-        this.kernel = null;
+        this(null);
+    }
+
+    public SwapCache getSwapCache() {
+        return swapCache;
     }
 
     public int findFreePhysicalPage() {
@@ -34,6 +43,27 @@ public class Scheduler {
         return -1; // No free page available
     }
 
+    /**
+     * Finds and claims a run of contiguous free frames aligned to its length.
+     *
+     * @param count number of frames in the run
+     * @return the first frame of the run, or -1 if none is available
+     */
+    public int findFreePhysicalRun(int count) {
+        boolean[] freeList = Kernel.getFreelist();
+        for (int start = 0; start <= freeList.length - count; start += count) {
+            int length = 0;
+            while (length < count && freeList[start + length]) {
+                length++;
+            }
+            if (length == count) {
+                Arrays.fill(freeList, start, start + count, false);
+                return start;
+            }
+        }
+        return -1;
+    }
+
     public int handlePageSwap(int virtualPage) {
         PCB victimProcess = getRandomProcess();
         if (victimProcess == null) {
@@ -50,7 +80,8 @@ public class Scheduler {
         VirtualToPhysicalMapping[] pageTable = PCB.getPagetable();
         List<Integer> physicalPages = new ArrayList<>();
         for (int i = 0; i < pageTable.length; i++) {
-            if (pageTable[i] != null && pageTable[i].physicalPageNumber != -1) {
+            if (pageTable[i] != null && pageTable[i].physicalPageNumber != -1
+                    && !pageTable[i].pinned && pageTable[i].pinCount == 0) {
                 physicalPages.add(i);
             }
         }
@@ -62,10 +93,33 @@ public class Scheduler {
 
     private int swapOut(PCB victimProcess, int victimPageIndex) {
         VirtualToPhysicalMapping mapping = PCB.getPagetable()[victimPageIndex];
+        Tracer.begin(Tracer.Event.SWAP_OUT, victimPageIndex, mapping.physicalPageNumber);
+        try {
+            return evict(mapping, victimPageIndex);
+        } finally {
+            Tracer.end(Tracer.Event.SWAP_OUT, victimPageIndex, mapping.physicalPageNumber);
+        }
+    }
+
+    private int evict(VirtualToPhysicalMapping mapping, int victimPageIndex) {
+        PCB owner = getProcess(mapping.ownerPid);
+        if (owner != null) {
+            owner.getMemoryStats().recordEviction(mapping.mappedFile == null);
+        }
+        if (mapping.mappedFile != null) {
+            // File-backed pages go back to their file instead of the swap area
+            if (mapping.dirty) {
+                mapping.mappedFile.writeBack(victimPageIndex, mapping.physicalPageNumber);
+                mapping.dirty = false;
+            }
+            int freedPhysicalPage = mapping.physicalPageNumber;
+            mapping.physicalPageNumber = -1;
+            return freedPhysicalPage;
+        }
         if (mapping.onDiskPageNumber == -1) {
             mapping.onDiskPageNumber = allocateNewDiskBlock();
         }
-        if (!writePageToDisk(mapping.physicalPageNumber, mapping.onDiskPageNumber)) {
+        if (!writePageToSwap(mapping.physicalPageNumber, mapping.onDiskPageNumber)) {
             throw new RuntimeException("Failed to write page to disk during swap.");
         }
         int freedPhysicalPage = mapping.physicalPageNumber;
@@ -74,7 +128,7 @@ public class Scheduler {
     }
 
     private PCB getRandomProcess() {
-        List<PCB> candidates = allProcesses.stream()
+        List<PCB> candidates = getProcessSnapshot().stream()
                 .filter(process -> Arrays.stream(PCB.getPagetable())
                         .anyMatch(mapping -> mapping != null && mapping.physicalPageNumber != -1))
                 .collect(Collectors.toList());
@@ -85,15 +139,31 @@ public class Scheduler {
         return nextFreeBlock++;
     }
 
-    private boolean writePageToDisk(int physicalPage, int diskPageNumber) {
+    private boolean writePageToSwap(int physicalPage, int diskPageNumber) {
         try {
             byte[] data = Kernel.getPhysicalMemory(physicalPage);
-            VFS.Write(diskPageNumber, data);
-            return true;
+            return swapCache.store(diskPageNumber, data);
         } catch (Exception e) {
-            System.err.println("Disk write failed: " + e.getMessage());
+            System.err.println("Swap write failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean writeDataToDisk(int diskPageNumber, byte[] data) {
+        if (!kernel.writeSwapPage(diskPageNumber, data)) {
+            System.err.println("Disk write failed for swap page " + diskPageNumber);
             return false;
         }
+        return true;
+    }
+
+    /**
+     * Reads a swapped-out page back from the swap file.
+     *
+     * @return true if the page was read in full
+     */
+    public boolean readDataFromDisk(int diskPageNumber, byte[] destination) {
+        return kernel.readSwapPage(diskPageNumber, destination);
     }
 
     public int getPid() {
@@ -101,31 +171,88 @@ public class Scheduler {
     }
 
     public int GetPidByName(String name) {
-        return allProcesses.stream()
-                .filter(process -> process.getName().equals(name))
-                .map(PCB::getPid)
-                .findFirst()
-                .orElse(-1);
+        synchronized (allProcesses) {
+            return allProcesses.stream()
+                    .filter(process -> process.getName().equals(name))
+                    .map(PCB::getPid)
+                    .findFirst()
+                    .orElse(-1);
+        }
+    }
+
+    /**
+     * @return a copy of the process table, safe to walk while processes are created
+     */
+    public List<PCB> getProcessSnapshot() {
+        synchronized (allProcesses) {
+            return new ArrayList<>(allProcesses);
+        }
+    }
+
+    /**
+     * @return "running", "waiting" (blocked in the kernel), "sleeping", "ready" or "done"
+     */
+    public synchronized String getState(PCB process) {
+        if (process.isDone()) {
+            return "done";
+        }
+        if (process == currentlyRunning) {
+            return "running";
+        }
+        if (process.isWaiting() || process.getCallTarget() != -1) {
+            return "waiting";
+        }
+        return sleepingQueue.contains(process) ? "sleeping" : "ready";
+    }
+
+    /**
+     * @return swap slots handed out so far; slots are never reused
+     */
+    public int getSwapSlotsAllocated() {
+        return nextFreeBlock;
+    }
+
+    public PCB getProcess(int pid) {
+        synchronized (allProcesses) {
+            for (PCB process : allProcesses) {
+                if (process.getPid() == pid) {
+                    return process;
+                }
+            }
+        }
+        return null;
     }
 
     public List<PCB> getAllProcesses() {
         return allProcesses;
     }
 
-    public void sleep(int milliseconds) {
-        currentlyRunning.setWakeUpTime(clock.millis() + milliseconds);
-        sleepingQueue.add(currentlyRunning);
+    public synchronized void sleep(int milliseconds) {
+        if (currentlyRunning != null) {
+            currentlyRunning.setWakeUpTime(clock.millis() + milliseconds);
+            sleepingQueue.add(currentlyRunning);
+        }
         switchProcess();
     }
 
-    public void createProcess(PCB process) {
-        allProcesses.add(process);
-        switch (process.getPriority()) {
-            case REAL_TIME -> realTimeQueue.add(process);
-            case INTERACTIVE -> interactiveQueue.add(process);
-            case BACKGROUND -> backgroundQueue.add(process);
-            default -> throw new IllegalArgumentException("Unknown priority: " + process.getPriority());
+    /**
+     * Arms the timeout of a process about to block in the kernel. Unless something wakes it
+     * first, the process is woken once the clock reaches the given time.
+     */
+    public synchronized void addTimer(PCB process, long wakeUpTime) {
+        process.setWakeUpTime(wakeUpTime);
+        sleepingQueue.add(process);
+    }
+
+    public synchronized void cancelTimer(PCB process) {
+        sleepingQueue.remove(process);
+    }
+
+    public synchronized void createProcess(PCB process) {
+        synchronized (allProcesses) {
+            allProcesses.add(process);
         }
+        RestoreToRunnableQueue(process);
         if (currentlyRunning == null) {
             switchProcess();
         }
@@ -133,26 +260,100 @@ public class Scheduler {
 
     private void runProcess(PCB process) {
         if (process != null) {
+            Tracer.instant(Tracer.Event.CONTEXT_SWITCH, getPid(), process.getPid());
+            long now = Kernel.nanoTime();
+            if (currentlyRunning != null) {
+                currentlyRunning.recordDeschedule(now);
+            }
+            process.recordDispatch(now);
             currentlyRunning = process;
             process.run();
         }
     }
 
-    public void switchProcess() {
+    public synchronized void switchProcess() {
+        switchProcess(null);
+    }
+
+    /**
+     * Like {@link #switchProcess()}, but runs the preferred process next if it is on a run queue.
+     * Synchronous calls use it so a blocked client donates its time slice to the server and the
+     * server's reply donates it back.
+     *
+     * @param preferred the process to run next, or null to let the lottery decide
+     */
+    public synchronized void switchProcess(PCB preferred) {
         if (currentlyRunning != null && currentlyRunning.isDone()) {
             kernel.closeAllDevicesForProcess(currentlyRunning);
+            kernel.leaveAllGroups(currentlyRunning);
+            kernel.failPendingCalls(currentlyRunning);
         }
 
         clearTLB();
+        requeueIfRunnable(currentlyRunning);
 
         wakeUpSleepingProcesses();
+        dropStaleEntries();
+        if (Kernel.isVirtualTime()) {
+            skipIdleTime();
+        }
 
-        if (!realTimeQueue.isEmpty() && random.nextInt(10) < 6) {
+        if (preferred != null && (realTimeQueue.remove(preferred) | interactiveQueue.remove(preferred)
+                | backgroundQueue.remove(preferred))) {
+            runProcess(preferred);
+        } else if (!realTimeQueue.isEmpty() && random.nextInt(10) < 6) {
             runProcess(realTimeQueue.poll());
         } else if (!interactiveQueue.isEmpty() && random.nextInt(10) < 9) {
             runProcess(interactiveQueue.poll());
         } else if (!backgroundQueue.isEmpty()) {
             runProcess(backgroundQueue.poll());
+        } else if (!interactiveQueue.isEmpty()) {
+            // The lottery skipped the only tier with work; never leave the CPU idle
+            runProcess(interactiveQueue.poll());
+        } else if (!realTimeQueue.isEmpty()) {
+            runProcess(realTimeQueue.poll());
+        } else {
+            currentlyRunning = null;
+        }
+    }
+
+    /**
+     * Called by the kernel when no system call arrived in time: if the CPU is idle, dispatches any
+     * sleeper that has come due.
+     */
+    public synchronized void dispatchIfIdle() {
+        if (currentlyRunning == null) {
+            switchProcess();
+        }
+    }
+
+    /**
+     * @return how long the kernel may wait for a system call before it must check on sleepers
+     */
+    public synchronized long getIdleWaitMillis() {
+        if (currentlyRunning != null || sleepingQueue.isEmpty()) {
+            return IDLE_WAIT_MILLIS;
+        }
+        long nextWakeUp = Long.MAX_VALUE;
+        for (PCB process : sleepingQueue) {
+            nextWakeUp = Math.min(nextWakeUp, process.getWakeUpTime());
+        }
+        return Math.max(1, Math.min(IDLE_WAIT_MILLIS, nextWakeUp - clock.millis()));
+    }
+
+    private void requeueIfRunnable(PCB process) {
+        if (process == null || process.isDone() || process.isWaiting() || process.getCallTarget() != -1
+                || sleepingQueue.contains(process)) {
+            return;
+        }
+        enqueue(process);
+    }
+
+    // A process restored by a racing wake-up may have blocked, slept or exited again before being dispatched
+    private void dropStaleEntries() {
+        for (LinkedList<PCB> queue : List.of(realTimeQueue, interactiveQueue, backgroundQueue)) {
+            queue.removeIf(process -> process.isDone() || process.isWaiting() || process.getCallTarget() != -1
+                    || sleepingQueue.contains(process));
         }
     }
 
@@ -164,6 +365,20 @@ public class Scheduler {
         }
     }
 
+    /**
+     * On the virtual clock an idle CPU has nothing to wait for, so time jumps straight to the
+     * earliest sleeper. On the real clock the kernel loop waits for it instead.
+     */
+    private void skipIdleTime() {
+        if (realTimeQueue.isEmpty() && interactiveQueue.isEmpty() && backgroundQueue.isEmpty()) {
+            OptionalLong nextWakeUp = sleepingQueue.stream().mapToLong(PCB::getWakeUpTime).min();
+            if (nextWakeUp.isPresent()) {
+                Kernel.advanceTimeTo(nextWakeUp.getAsLong());
+                wakeUpSleepingProcesses();
+            }
+        }
+    }
+
     private void wakeUpSleepingProcesses() {
         long currentTime = clock.millis();
         Iterator<PCB> iterator = sleepingQueue.iterator();
@@ -171,17 +386,33 @@ public class Scheduler {
             PCB process = iterator.next();
             if (process.getWakeUpTime() <= currentTime) {
                 iterator.remove();
-                RestoreToRunnableQueue(process);
+                if (process.isWaiting()) {
+                    kernel.wakeProcess(process); // A blocking call timed out
+                } else {
+                    RestoreToRunnableQueue(process);
+                }
             }
         }
     }
 
-    public void RestoreToRunnableQueue(PCB process) {
-        switch (process.getPriority()) {
-            case REAL_TIME -> realTimeQueue.add(process);
-            case INTERACTIVE -> interactiveQueue.add(process);
-            case BACKGROUND -> backgroundQueue.add(process);
+    /**
+     * Puts a process on the run queue for its priority. Restoring a process that is already queued
+     * has no effect, so racing wake-ups cannot enqueue it twice.
+     */
+    public synchronized void RestoreToRunnableQueue(PCB process) {
+        enqueue(process);
+    }
+
+    private void enqueue(PCB process) {
+        LinkedList<PCB> queue = switch (process.getPriority()) {
+            case REAL_TIME -> realTimeQueue;
+            case INTERACTIVE -> interactiveQueue;
+            case BACKGROUND -> backgroundQueue;
             default -> throw new IllegalArgumentException("Unknown priority: " + process.getPriority());
+        };
+        if (!realTimeQueue.contains(process) && !interactiveQueue.contains(process)
+                && !backgroundQueue.contains(process)) {
+            queue.add(process);
         }
     }
 
@@ -0,0 +1,196 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer byte ring backed by pinned physical frames.
+ * The frames are mapped into the shared virtual address space, and both
+ * ends copy directly to and from physical memory. The kernel is only
+ * involved when a side has to block because the ring is full or empty.
+ */
+public class SharedChannel {
+
+    /**
+     * The side of the channel a process holds.
+     */
+    public enum End {
+        READER, WRITER
+    }
+
+    private static final int PAGE_SIZE = MemoryLayout.getPageSize();
+
+    private final int id;
+    private final int[] frames;
+    private final int startPage;
+    private final long capacity;
+    private final AtomicLong writePosition = new AtomicLong(0);
+    private final AtomicLong readPosition = new AtomicLong(0);
+    private final AtomicBoolean writerClosed = new AtomicBoolean(false);
+    private final AtomicBoolean writerReleased = new AtomicBoolean(false);
+    private final AtomicBoolean readerReleased = new AtomicBoolean(false);
+    private final AtomicInteger openEnds = new AtomicInteger(2);
+    private final WaitQueue notEmpty = new WaitQueue();
+    private final WaitQueue notFull = new WaitQueue();
+
+    public SharedChannel(int id, int[] frames, int startPage) {
+        this.id = id;
+        this.frames = frames;
+        this.startPage = startPage;
+        this.capacity = (long) frames.length * PAGE_SIZE;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the virtual address at which the ring's frames are mapped
+     */
+    public int getAddress() {
+        return startPage * PAGE_SIZE;
+    }
+
+    public int getPageCount() {
+        return frames.length;
+    }
+
+    int[] getFrames() {
+        return frames;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes written but not yet read
+     */
+    public long available() {
+        return writePosition.get() - readPosition.get();
+    }
+
+    /**
+     * Writes every byte, blocking while the ring is full.
+     *
+     * @param data source array
+     * @param offset first byte to write
+     * @param length number of bytes to write
+     * @return the number of bytes written, short only if the reader has gone away
+     */
+    public int write(byte[] data, int offset, int length) {
+        int written = 0;
+        while (written < length) {
+            int count = tryWrite(data, offset + written, length - written);
+            if (count == -1) {
+                break;
+            }
+            if (count == 0) {
+                OS.await(notFull, () -> available() < capacity || readerReleased.get());
+            }
+            written += Math.max(count, 0);
+        }
+        return written;
+    }
+
+    /**
+     * Copies as many bytes as currently fit without blocking.
+     *
+     * @return the number of bytes written, or -1 if the reader has closed its end
+     */
+    public int tryWrite(byte[] data, int offset, int length) {
+        if (readerReleased.get()) {
+            return -1;
+        }
+        long tail = writePosition.get();
+        int count = (int) Math.min(length, capacity - (tail - readPosition.get()));
+        if (count <= 0) {
+            return 0;
+        }
+        copy(data, offset, tail, count, true);
+        writePosition.set(tail + count); // Publishes the bytes to the reader
+        notEmpty.wakeOne();
+        return count;
+    }
+
+    /**
+     * Reads at least one byte, blocking while the ring is empty.
+     *
+     * @param buffer destination array
+     * @param offset first byte to fill
+     * @param length maximum number of bytes to read
+     * @return the number of bytes read, or -1 once the writer has closed and the ring is drained
+     */
+    public int read(byte[] buffer, int offset, int length) {
+        while (true) {
+            int count = tryRead(buffer, offset, length);
+            if (count != 0 || length == 0) {
+                return count;
+            }
+            OS.await(notEmpty, () -> available() > 0 || writerClosed.get());
+        }
+    }
+
+    /**
+     * Copies whatever is available without blocking.
+     *
+     * @return the number of bytes read, or -1 once the writer has closed and the ring is drained
+     */
+    public int tryRead(byte[] buffer, int offset, int length) {
+        long head = readPosition.get();
+        int count = (int) Math.min(length, writePosition.get() - head);
+        if (count <= 0) {
+            return writerClosed.get() && available() == 0 ? -1 : 0;
+        }
+        copy(buffer, offset, head, count, false);
+        readPosition.set(head + count); // Releases the space to the writer
+        notFull.wakeOne();
+        return count;
+    }
+
+    /**
+     * Marks the producer side finished; the reader sees end-of-stream once drained.
+     */
+    public void closeWriter() {
+        if (writerClosed.compareAndSet(false, true)) {
+            notEmpty.wakeAll();
+        }
+    }
+
+    /**
+     * Releases one end of the channel. Releasing an end twice does nothing.
+     *
+     * @param end the side being closed
+     * @return true when both ends are closed and the frames can be reclaimed
+     */
+    boolean release(End end) {
+        AtomicBoolean released = end == End.WRITER ? writerReleased : readerReleased;
+        if (!released.compareAndSet(false, true)) {
+            return false;
+        }
+        if (end == End.WRITER) {
+            closeWriter();
+        } else {
+            notFull.wakeAll(); // Blocked writers fail once nobody will read
+        }
+        return openEnds.decrementAndGet() == 0;
+    }
+
+    private void copy(byte[] array, int offset, long position, int count, boolean toRing) {
+        byte[] memory = UserlandProcess.getMemory();
+        while (count > 0) {
+            long ringOffset = position % capacity;
+            int frameIndex = (int) (ringOffset / PAGE_SIZE);
+            int pageOffset = (int) (ringOffset % PAGE_SIZE);
+            int chunk = Math.min(count, PAGE_SIZE - pageOffset);
+            int physicalAddress = frames[frameIndex] * PAGE_SIZE + pageOffset;
+            if (toRing) {
+                System.arraycopy(array, offset, memory, physicalAddress, chunk);
+            } else {
+                System.arraycopy(memory, physicalAddress, array, offset, chunk);
+            }
+            offset += chunk;
+            position += chunk;
+            count -= chunk;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed in-memory tier that sits in front of the swap file.
+ * Evicted pages are deflated into a bounded pool; when the pool is full the
+ * least recently used pages are written through to disk.
+ */
+public class SwapCache {
+
+    /**
+     * Destination for pages that fall out of the compressed pool.
+     */
+    public interface Backend {
+        boolean writePage(int diskPageNumber, byte[] data);
+    }
+
+    private static final int DEFAULT_CAPACITY_BYTES = 256 * 1024;
+    private static final byte[] ZERO_PAGE = new byte[0];
+
+    // Access-ordered so iteration starts at the least recently used page
+    private final LinkedHashMap<Integer, byte[]> pool = new LinkedHashMap<>(64, 0.75f, true);
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final Backend backend;
+    private final int pageSize;
+    private final int capacityBytes;
+    private byte[] scratch;
+    private int usedBytes = 0;
+
+    private long stores = 0;
+    private long zeroPages = 0;
+    private long rejected = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long writeBacks = 0;
+    private long uncompressedBytes = 0;
+    private long compressedBytes = 0;
+
+    public SwapCache(Backend backend, int pageSize) {
+        this(backend, pageSize, DEFAULT_CAPACITY_BYTES);
+    }
+
+    public SwapCache(Backend backend, int pageSize, int capacityBytes) {
+        this.backend = backend;
+        this.pageSize = pageSize;
+        this.capacityBytes = capacityBytes;
+        this.scratch = new byte[pageSize];
+    }
+
+    /**
+     * Compresses a page into the pool, evicting older pages to disk if needed.
+     * Pages that do not compress are written straight through.
+     *
+     * @param diskPageNumber the swap slot the page belongs to
+     * @param data the page contents
+     * @return true if the page is now held by the cache or the swap file
+     */
+    public synchronized boolean store(int diskPageNumber, byte[] data) {
+        invalidate(diskPageNumber);
+        stores++;
+        uncompressedBytes += data.length;
+
+        if (isZeroPage(data)) {
+            zeroPages++;
+            pool.put(diskPageNumber, ZERO_PAGE);
+            return true;
+        }
+
+        byte[] compressed = compress(data);
+        if (compressed == null || compressed.length > capacityBytes) {
+            rejected++;
+            compressedBytes += data.length;
+            return backend.writePage(diskPageNumber, data);
+        }
+
+        compressedBytes += compressed.length;
+        pool.put(diskPageNumber, compressed);
+        usedBytes += compressed.length;
+        return evictToCapacity();
+    }
+
+    /**
+     * Decompresses a cached page into the destination and drops it from the pool.
+     *
+     * @param diskPageNumber the swap slot to look up
+     * @param destination buffer receiving the page contents
+     * @return true on a hit, false if the page must be read from the swap file
+     */
+    public synchronized boolean load(int diskPageNumber, byte[] destination) {
+        byte[] compressed = pool.remove(diskPageNumber);
+        if (compressed == null) {
+            misses++;
+            return false;
+        }
+        hits++;
+        usedBytes -= compressed.length;
+
+        if (compressed == ZERO_PAGE) {
+            Arrays.fill(destination, (byte) 0);
+            return true;
+        }
+
+        try {
+            inflater.reset();
+            inflater.setInput(compressed);
+            int length = inflater.inflate(destination);
+            Arrays.fill(destination, length, destination.length, (byte) 0);
+            return true;
+        } catch (DataFormatException e) {
+            System.err.println("Swap cache corruption for disk page " + diskPageNumber + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Forgets any cached copy of the given swap slot.
+     *
+     * @param diskPageNumber the swap slot to drop
+     */
+    public synchronized void invalidate(int diskPageNumber) {
+        byte[] previous = pool.remove(diskPageNumber);
+        if (previous != null) {
+            usedBytes -= previous.length;
+        }
+    }
+
+    /**
+     * Writes every cached page through to the swap file.
+     */
+    public synchronized void flush() {
+        Iterator<Map.Entry<Integer, byte[]>> iterator = pool.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, byte[]> entry = iterator.next();
+            writeBack(entry.getKey(), entry.getValue());
+            usedBytes -= entry.getValue().length;
+            iterator.remove();
+        }
+    }
+
+    public synchronized double getCompressionRatio() {
+        return compressedBytes == 0 ? 0.0 : (double) uncompressedBytes / compressedBytes;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    public synchronized int getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized int getCachedPages() {
+        return pool.size();
+    }
+
+    public synchronized long getWriteBacks() {
+        return writeBacks;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "SwapCache{pages=%d, used=%d/%d bytes, stores=%d, zeroPages=%d, rejected=%d, " +
+                        "ratio=%.2f, hitRate=%.2f, writeBacks=%d}",
+                pool.size(), usedBytes, capacityBytes, stores, zeroPages, rejected,
+                getCompressionRatio(), getHitRate(), writeBacks);
+    }
+
+    private boolean evictToCapacity() {
+        boolean ok = true;
+        Iterator<Map.Entry<Integer, byte[]>> iterator = pool.entrySet().iterator();
+        while (usedBytes > capacityBytes && iterator.hasNext()) {
+            Map.Entry<Integer, byte[]> eldest = iterator.next();
+            ok &= writeBack(eldest.getKey(), eldest.getValue());
+            usedBytes -= eldest.getValue().length;
+            iterator.remove();
+        }
+        return ok;
+    }
+
+    private boolean writeBack(int diskPageNumber, byte[] compressed) {
+        writeBacks++;
+        byte[] page = new byte[pageSize];
+        if (compressed != ZERO_PAGE) {
+            try {
+                inflater.reset();
+                inflater.setInput(compressed);
+                inflater.inflate(page);
+            } catch (DataFormatException e) {
+                System.err.println("Swap cache corruption for disk page " + diskPageNumber + ": " + e.getMessage());
+                return false;
+            }
+        }
+        return backend.writePage(diskPageNumber, page);
+    }
+
+    /**
+     * Deflates a page, returning null if the result is no smaller than the input.
+     */
+    private byte[] compress(byte[] data) {
+        if (scratch.length < data.length) {
+            scratch = new byte[data.length];
+        }
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        int length = deflater.deflate(scratch, 0, scratch.length);
+        if (!deflater.finished() || length >= data.length) {
+            return null;
+        }
+        byte[] compressed = new byte[length];
+        System.arraycopy(scratch, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    private static boolean isZeroPage(byte[] data) {
+        for (byte b : data) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,294 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Structured tracing of kernel events for timeline analysis.
+ * <p>
+ * Each thread records into its own ring, so recording takes no lock and
+ * never blocks: the owning thread is the only writer and publishes each
+ * event by advancing the ring's head with a release store. A ring starts
+ * small and doubles up to the configured size; once full, the oldest events
+ * are overwritten. Rings of threads that have exited are dropped after they
+ * are exported. With tracing off, a hook costs one field read.
+ * <p>
+ * {@link #export} writes every ring as Chrome trace JSON, which Perfetto
+ * (ui.perfetto.dev) and chrome://tracing open directly. Run with
+ * {@code -Dos.trace=trace.json} to trace from startup and export at exit;
+ * {@code -Dos.traceBuffer=N} sets the events kept per thread.
+ */
+public final class Tracer {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final int INITIAL_RING_CAPACITY = 256;
+    private static final char BEGIN = 'B';
+    private static final char END = 'E';
+    private static final char INSTANT = 'i';
+
+    /**
+     * Traced kernel events. The two arguments recorded with each event are
+     * named per event type in the exported trace.
+     */
+    public enum Event {
+        CONTEXT_SWITCH("scheduler", "context switch", "from", "to"),
+        SYSCALL("syscall", "syscall", "pid", "unused"),
+        PAGE_FAULT("memory", "page fault", "virtualPage", "frame"),
+        SWAP_OUT("memory", "swap out", "virtualPage", "frame"),
+        SWAP_IN("memory", "swap in", "diskPage", "frame"),
+        MESSAGE_SEND("ipc", "message send", "from", "to"),
+        MESSAGE_RECEIVE("ipc", "message receive", "from", "to"),
+        DEVICE_READ("io", "device read", "fd", "bytes"),
+        DEVICE_WRITE("io", "device write", "fd", "bytes");
+
+        private final String category;
+        private final String label;
+        private final String firstArgument;
+        private final String secondArgument;
+
+        Event(String category, String label, String firstArgument, String secondArgument) {
+            this.category = category;
+            this.label = label;
+            this.firstArgument = firstArgument;
+            this.secondArgument = secondArgument;
+        }
+    }
+
+    // Event storage of one ring; replaced by a larger copy while the ring grows
+    private static final class Slots {
+        final int mask;
+        final long[] timestamps;
+        final Event[] events;
+        final String[] names;
+        final char[] phases;
+        final long[] firstArguments;
+        final long[] secondArguments;
+
+        Slots(int capacity) {
+            this.mask = capacity - 1;
+            this.timestamps = new long[capacity];
+            this.events = new Event[capacity];
+            this.names = new String[capacity];
+            this.phases = new char[capacity];
+            this.firstArguments = new long[capacity];
+            this.secondArguments = new long[capacity];
+        }
+
+        // Only valid before the ring wraps, when event i is still in slot i
+        Slots(Slots smaller, int capacity) {
+            this.mask = capacity - 1;
+            this.timestamps = Arrays.copyOf(smaller.timestamps, capacity);
+            this.events = Arrays.copyOf(smaller.events, capacity);
+            this.names = Arrays.copyOf(smaller.names, capacity);
+            this.phases = Arrays.copyOf(smaller.phases, capacity);
+            this.firstArguments = Arrays.copyOf(smaller.firstArguments, capacity);
+            this.secondArguments = Arrays.copyOf(smaller.secondArguments, capacity);
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+
+    // Single-writer ring owned by one thread; readers copy it without stopping the writer
+    private static final class Ring {
+        final long threadId;
+        final String threadName;
+        final WeakReference<Thread> owner;
+        final int maxCapacity;
+        // Written by the owner before the head moves past the old capacity, so readers see it in time
+        volatile Slots slots;
+        // Count of events ever written; slot is head & mask
+        final AtomicLong head = new AtomicLong();
+
+        Ring(Thread owner, int maxCapacity) {
+            this.threadId = owner.getId();
+            this.threadName = owner.getName();
+            this.owner = new WeakReference<>(owner);
+            this.maxCapacity = maxCapacity;
+            this.slots = new Slots(Math.min(INITIAL_RING_CAPACITY, maxCapacity));
+        }
+
+        void record(char phase, Event event, String name, long first, long second) {
+            long index = head.get();
+            Slots current = slots;
+            if (index == current.capacity() && index < maxCapacity) {
+                current = new Slots(current, Math.min(current.capacity() * 2, maxCapacity));
+                slots = current;
+            }
+            int slot = (int) (index & current.mask);
+            current.timestamps[slot] = System.nanoTime();
+            current.events[slot] = event;
+            current.names[slot] = name;
+            current.phases[slot] = phase;
+            current.firstArguments[slot] = first;
+            current.secondArguments[slot] = second;
+            head.lazySet(index + 1);
+        }
+
+        boolean isOwnerAlive() {
+            Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+    }
+
+    private static volatile boolean enabled;
+    private static volatile int capacity = DEFAULT_CAPACITY;
+    private static final long origin = System.nanoTime();
+    private static final List<Ring> rings = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Ring> localRing = ThreadLocal.withInitial(() -> {
+        Ring ring = new Ring(Thread.currentThread(), capacity);
+        rings.add(ring);
+        return ring;
+    });
+
+    static {
+        String size = System.getProperty("os.traceBuffer");
+        if (size != null) {
+            capacity = Integer.highestOneBit(Math.max(2, Integer.parseInt(size)));
+        }
+        String output = System.getProperty("os.trace");
+        if (output != null) {
+            enabled = true;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                enabled = false;
+                try {
+                    export(Paths.get(output));
+                } catch (IOException e) {
+                    System.err.println("Error writing trace to " + output + ": " + e.getMessage());
+                }
+            }, "trace-export"));
+        }
+    }
+
+    private Tracer() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void start() {
+        enabled = true;
+    }
+
+    public static void stop() {
+        enabled = false;
+    }
+
+    public static void begin(Event event, long first, long second) {
+        if (enabled) {
+            localRing.get().record(BEGIN, event, event.label, first, second);
+        }
+    }
+
+    /**
+     * Opens a slice with its own name, such as the specific system call.
+     */
+    public static void begin(Event event, String name, long first, long second) {
+        if (enabled) {
+            localRing.get().record(BEGIN, event, name, first, second);
+        }
+    }
+
+    /**
+     * Closes the innermost slice opened on this thread. The arguments are
+     * added to the slice, so results such as byte counts can be recorded here.
+     */
+    public static void end(Event event, long first, long second) {
+        if (enabled) {
+            localRing.get().record(END, event, event.label, first, second);
+        }
+    }
+
+    public static void instant(Event event, long first, long second) {
+        if (enabled) {
+            localRing.get().record(INSTANT, event, event.label, first, second);
+        }
+    }
+
+    /**
+     * Writes every thread's retained events to a Chrome trace JSON file.
+     * Rings of threads that have exited are released once written.
+     */
+    public static void export(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            export(writer);
+        }
+    }
+
+    public static void export(Writer out) throws IOException {
+        BufferedWriter writer = out instanceof BufferedWriter buffered ? buffered : new BufferedWriter(out);
+        writer.write("{\"displayTimeUnit\":\"ns\",\"traceEvents\":[");
+        boolean first = true;
+        for (Ring ring : rings) {
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            writer.write(String.format("%n{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,\"args\":{\"name\":\"%s\"}}",
+                    ring.threadId, escape(ring.threadName)));
+            writeRing(writer, ring);
+        }
+        writer.write(String.format("%n]}%n"));
+        writer.flush();
+        rings.removeIf(ring -> !ring.isOwnerAlive());
+    }
+
+    private static void writeRing(Writer writer, Ring ring) throws IOException {
+        long end = ring.head.get();
+        Slots slots = ring.slots;
+        long start = Math.max(0, end - slots.capacity());
+        int depth = 0;
+        for (long index = start; index < end; index++) {
+            int slot = (int) (index & slots.mask);
+            long timestamp = slots.timestamps[slot];
+            Event event = slots.events[slot];
+            String name = slots.names[slot];
+            char phase = slots.phases[slot];
+            long firstArgument = slots.firstArguments[slot];
+            long secondArgument = slots.secondArguments[slot];
+            // The owner may have lapped us while we copied; anything it overwrote is no longer trustworthy
+            if (ring.head.get() - index >= slots.capacity()) {
+                depth = 0;
+                continue;
+            }
+            if (phase == BEGIN) {
+                depth++;
+            } else if (phase == END) {
+                if (depth == 0) {
+                    continue; // Its begin was overwritten
+                }
+                depth--;
+            }
+            writer.write(String.format(Locale.ROOT,
+                    ",%n{\"name\":\"%s\",\"cat\":\"%s\",\"ph\":\"%c\",%s\"ts\":%.3f,\"pid\":1,\"tid\":%d,\"args\":{\"%s\":%d,\"%s\":%d}}",
+                    escape(name), event.category, phase, phase == INSTANT ? "\"s\":\"t\"," : "",
+                    (timestamp - origin) / 1e3, ring.threadId,
+                    event.firstArgument, firstArgument, event.secondArgument, secondArgument));
+        }
+    }
+
+    private static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
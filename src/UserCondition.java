@@ -0,0 +1,41 @@
+/**
+ * A condition variable living in a process's virtual memory, built on futexes.
+ * The condition word is a sequence number bumped by every signal, so a
+ * waiter that releases its mutex can never miss a signal sent in between.
+ */
+public class UserCondition {
+    private final UserlandProcess process;
+    private final int address;
+
+    /**
+     * @param process the process whose memory holds the condition word
+     * @param address 4-byte aligned virtual address of the condition word
+     */
+    public UserCondition(UserlandProcess process, int address) {
+        this.process = process;
+        this.address = address;
+    }
+
+    /**
+     * Releases the mutex, waits for a signal and re-acquires the mutex.
+     * As with any condition variable, callers must re-check their predicate.
+     *
+     * @param mutex the mutex held by the caller
+     */
+    public void await(UserMutex mutex) {
+        int sequence = process.ReadInt(address);
+        mutex.unlock();
+        OS.futexWait(address, sequence);
+        mutex.lock();
+    }
+
+    public void signal() {
+        process.GetAndAddInt(address, 1);
+        OS.futexWake(address, 1);
+    }
+
+    public void signalAll() {
+        process.GetAndAddInt(address, 1);
+        OS.futexWake(address, Integer.MAX_VALUE);
+    }
+}
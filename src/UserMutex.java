@@ -0,0 +1,49 @@
+/**
+ * A mutex living in a process's virtual memory, built on futexes.
+ * The lock word is 0 when free, 1 when held without waiters and 2 when
+ * held with possible waiters. Uncontended lock and unlock are a single
+ * atomic operation and never enter the kernel.
+ */
+public class UserMutex {
+    private final UserlandProcess process;
+    private final int address;
+
+    /**
+     * @param process the process whose memory holds the lock word
+     * @param address 4-byte aligned virtual address of the lock word, initially 0
+     */
+    public UserMutex(UserlandProcess process, int address) {
+        this.process = process;
+        this.address = address;
+    }
+
+    public int getAddress() {
+        return address;
+    }
+
+    public void lock() {
+        int state = process.CompareAndExchangeInt(address, 0, 1);
+        if (state == 0) {
+            return; // Fast path: acquired without contention
+        }
+        if (state != 2) {
+            state = process.GetAndSetInt(address, 2);
+        }
+        while (state != 0) {
+            OS.futexWait(address, 2);
+            state = process.GetAndSetInt(address, 2);
+        }
+    }
+
+    public boolean tryLock() {
+        return process.CompareAndExchangeInt(address, 0, 1) == 0;
+    }
+
+    public void unlock() {
+        if (process.GetAndAddInt(address, -1) != 1) {
+            // There may be waiters: release fully and wake one of them
+            process.WriteInt(address, 0);
+            OS.futexWake(address, 1);
+        }
+    }
+}
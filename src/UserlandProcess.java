@@ -1,13 +1,20 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.concurrent.Semaphore;
 
 public abstract class UserlandProcess implements Runnable {
     private final Thread thread;
     private final Semaphore semaphore = new Semaphore(0);
     private boolean quantumExpired = false;
+    private volatile boolean done = false;
 
-    private static final int PAGE_SIZE = 1024;
-    private static final byte[] memory = new byte[1024 * 1024]; // 1 MB memory
-    private static final int[][] TLB = { { -1, -1 }, { -1, -1 } }; // TLB: {virtualPage, physicalPage}
+    private static final int PAGE_SIZE = MemoryLayout.getPageSize();
+    private static final byte[] memory = new byte[MemoryLayout.PHYSICAL_MEMORY_BYTES];
+    // TLB: {virtualPage, physicalPage, pageCount}; huge pages cover several pages with one entry
+    private static final int[][] TLB = { { -1, -1, -1 }, { -1, -1, -1 } };
+    // Atomic 32-bit view of physical memory for lock words
+    private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.nativeOrder());
 
     public UserlandProcess() {
         this.thread = new Thread(this);
@@ -17,6 +24,10 @@ public abstract class UserlandProcess implements Runnable {
         return TLB;
     }
 
+    public static byte[] getMemory() {
+        return memory;
+    }
+
     /**
      * Reads a byte from the given virtual address.
      * Handles TLB misses by fetching the required mapping.
@@ -29,8 +40,9 @@ public abstract class UserlandProcess implements Runnable {
         int offset = address % PAGE_SIZE;
 
         for (int[] entry : TLB) {
-            if (entry[0] == virtualPage) { // TLB hit
-                int physicalPage = entry[1];
+            int delta = virtualPage - entry[0];
+            if (delta >= 0 && delta < entry[2]) { // TLB hit
+                int physicalPage = entry[1] + delta;
                 return memory[physicalPage * PAGE_SIZE + offset];
             }
         }
@@ -52,9 +64,11 @@ public abstract class UserlandProcess implements Runnable {
         int offset = address % PAGE_SIZE;
 
         for (int[] entry : TLB) {
-            if (entry[0] == virtualPage) { // TLB hit
-                int physicalPage = entry[1];
+            int delta = virtualPage - entry[0];
+            if (delta >= 0 && delta < entry[2]) { // TLB hit
+                int physicalPage = entry[1] + delta;
                 memory[physicalPage * PAGE_SIZE + offset] = value;
+                markDirty(virtualPage);
                 return;
             }
         }
@@ -64,6 +78,90 @@ public abstract class UserlandProcess implements Runnable {
         Write(address, value);
     }
 
+    private static void markDirty(int virtualPage) {
+        VirtualToPhysicalMapping mapping = PCB.getPagetable()[virtualPage];
+        if (mapping != null) {
+            mapping.dirty = true;
+        }
+    }
+
+    /**
+     * Atomically reads a 32-bit word, e.g. a lock word shared with other processes.
+     *
+     * @param address a 4-byte aligned virtual address
+     * @return the word at the address
+     */
+    public int ReadInt(int address) {
+        return (int) INT_VIEW.getVolatile(memory, translate(address));
+    }
+
+    /**
+     * Atomically writes a 32-bit word.
+     *
+     * @param address a 4-byte aligned virtual address
+     * @param value the value to store
+     */
+    public void WriteInt(int address, int value) {
+        INT_VIEW.setVolatile(memory, translate(address), value);
+        markDirty(address / PAGE_SIZE);
+    }
+
+    /**
+     * Atomically replaces a word if it holds the expected value.
+     *
+     * @param address a 4-byte aligned virtual address
+     * @param expected the value the word must hold
+     * @param value the replacement
+     * @return the value held before the call; equal to {@code expected} on success
+     */
+    public int CompareAndExchangeInt(int address, int expected, int value) {
+        int witness = (int) INT_VIEW.compareAndExchange(memory, translate(address), expected, value);
+        markDirty(address / PAGE_SIZE);
+        return witness;
+    }
+
+    public int GetAndSetInt(int address, int value) {
+        int previous = (int) INT_VIEW.getAndSet(memory, translate(address), value);
+        markDirty(address / PAGE_SIZE);
+        return previous;
+    }
+
+    public int GetAndAddInt(int address, int delta) {
+        int previous = (int) INT_VIEW.getAndAdd(memory, translate(address), delta);
+        markDirty(address / PAGE_SIZE);
+        return previous;
+    }
+
+    /**
+     * Atomically reads a word by physical address. Used by the kernel to
+     * check futex values without going through a process's TLB.
+     */
+    public static int readPhysicalInt(int physicalAddress) {
+        return (int) INT_VIEW.getVolatile(memory, physicalAddress);
+    }
+
+    /**
+     * Translates a word-aligned virtual address to a physical one through the TLB.
+     */
+    private int translate(int address) {
+        if ((address & 3) != 0) {
+            throw new IllegalArgumentException("Address is not 4-byte aligned: " + address);
+        }
+        int virtualPage = address / PAGE_SIZE;
+        int offset = address % PAGE_SIZE;
+
+        for (int[] entry : TLB) {
+            int delta = virtualPage - entry[0];
+            if (delta >= 0 && delta < entry[2]) { // TLB hit
+                return (entry[1] + delta) * PAGE_SIZE + offset;
+            }
+        }
+
+        // TLB miss: Fetch mapping and retry
+        OS.getMapping(virtualPage);
+        return translate(address);
+    }
+
     /**
      * Starts the userland process, releasing the semaphore to allow execution.
      */
@@ -74,6 +172,22 @@ public abstract class UserlandProcess implements Runnable {
         }
     }
 
+    /**
+     * Simulates computing for the given time. Takes real time on the real
+     * clock and only advances the clock in virtual time mode.
+     */
+    protected void work(int milliseconds) {
+        if (Kernel.isVirtualTime()) {
+            Kernel.advanceTime(milliseconds);
+            return;
+        }
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Requests the process to stop at the next cooperative point.
      */
@@ -107,7 +221,14 @@ public abstract class UserlandProcess implements Runnable {
      * @return true if the process is done, false otherwise
      */
     public boolean isDone() {
-        return !thread.isAlive();
+        return done;
+    }
+
+    /**
+     * @return true if the caller is running on this process's thread
+     */
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
     }
 
     /**
@@ -128,6 +249,10 @@ public abstract class UserlandProcess implements Runnable {
         } catch (Exception e) {
             e.printStackTrace();
             Thread.currentThread().interrupt();
+        } finally {
+            // Exit: hand the CPU on; the scheduler releases the process's resources
+            done = true;
+            OS.switchProcess();
         }
     }
 
@@ -1,13 +1,30 @@
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class VFS {
 
-    // Maps a VFS ID to a devices and its corresponding devices ID
-    private static final Map<Integer, DeviceEntry> deviceMap = new HashMap<>();
-    private int nextVfsId = 0; // Counter for generating unique VFS IDs
+    private static final int INITIAL_OPEN_FILES = 64;
+
+    // Open-file table indexed by VFS ID; each slot holds a driver and its driver-local ID.
+    // Lookups read it without locking, so every change is published by writing the field.
+    private static volatile DeviceEntry[] openFiles = new DeviceEntry[INITIAL_OPEN_FILES];
+    // Stack of free VFS IDs, so opening a device is a constant-time slot allocation
+    private static int[] freeSlots = new int[INITIAL_OPEN_FILES];
+    private static int freeCount = 0;
+    private static int highWaterMark = 0;
+    // Write-back cache of file blocks shared by all file devices
+    private static final BlockCache blockCache = new BlockCache();
+    // Woken by devices whose readiness changes so pollers re-check their handles
+    private static final WaitQueue readinessQueue = new WaitQueue();
+
+    // Inner class representing an entry in the open-file table
+    static {
+        // Dirty blocks would otherwise be lost when the JVM exits between flusher runs
+        Runtime.getRuntime().addShutdownHook(new Thread(blockCache::close, "block-cache-shutdown"));
+    }
 
-    // Inner class representing an entry in the devices map
     private static class DeviceEntry {
         final Devices devices;
         final int deviceId;
@@ -35,12 +52,11 @@ public class VFS {
         String deviceName = parts[0];
         String details = (parts.length > 1) ? parts[1] : "";
 
-        // Determine and initialize the appropriate devices
-        Devices devices = switch (deviceName.toLowerCase()) {
-            case "random" -> new RandomDevice();
-            case "file" -> new FakeFileSystem();
-            default -> throw new IllegalArgumentException("Unsupported devices type: " + deviceName);
-        };
+        // Look up the shared driver instance for this device type
+        Devices devices = DriverRegistry.get(deviceName);
+        if (devices == null) {
+            throw new IllegalArgumentException("Unsupported devices type: " + deviceName);
+        }
 
         // Open the devices and obtain a devices-specific ID
         int deviceId = devices.Open(details);
@@ -48,25 +64,51 @@ public class VFS {
             throw new Exception("Failed to open devices: " + deviceName);
         }
 
-        // Generate a new VFS ID and associate it with the devices
-        int vfsId = nextVfsId++;
-        deviceMap.put(vfsId, new DeviceEntry(devices, deviceId));
+        // Claim a slot in the open-file table for the devices
+        return allocateSlot(new DeviceEntry(devices, deviceId));
+    }
+
+    private static synchronized int allocateSlot(DeviceEntry entry) {
+        int vfsId;
+        if (freeCount > 0) {
+            vfsId = freeSlots[--freeCount];
+        } else {
+            if (highWaterMark == openFiles.length) {
+                openFiles = Arrays.copyOf(openFiles, openFiles.length * 2);
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            vfsId = highWaterMark++;
+        }
+        DeviceEntry[] table = openFiles;
+        table[vfsId] = entry;
+        openFiles = table;
         return vfsId;
     }
 
+    private static synchronized void releaseSlot(int vfsId) {
+        DeviceEntry[] table = openFiles;
+        table[vfsId] = null;
+        openFiles = table;
+        freeSlots[freeCount++] = vfsId;
+    }
+
+    private static DeviceEntry lookup(int vfsId) {
+        DeviceEntry[] table = openFiles;
+        if (vfsId >= 0 && vfsId < table.length && table[vfsId] != null) {
+            return table[vfsId];
+        }
+        throw new IllegalArgumentException("Invalid VFS ID: " + vfsId);
+    }
+
     /**
      * Closes the devices associated with the given VFS ID.
      *
      * @param vfsId The VFS ID of the devices to close.
      */
     public void Close(int vfsId) {
-        DeviceEntry entry = deviceMap.get(vfsId);
-        if (entry != null) {
-            entry.devices.Close(entry.deviceId); // Close the devices
-            deviceMap.remove(vfsId); // Remove the entry from the map
-        } else {
-            throw new IllegalArgumentException("Invalid VFS ID: " + vfsId);
-        }
+        DeviceEntry entry = lookup(vfsId);
+        entry.devices.Close(entry.deviceId); // Close the devices
+        releaseSlot(vfsId); // Return the slot to the free list
     }
 
     /**
@@ -77,12 +119,8 @@ public class VFS {
      * @return A byte array containing the read data.
      */
     public static byte[] Read(int vfsId, int size) {
-        DeviceEntry entry = deviceMap.get(vfsId);
-        if (entry != null) {
-            return entry.devices.Read(entry.deviceId, size); // Perform the read operation
-        } else {
-            throw new IllegalArgumentException("Invalid VFS ID: " + vfsId);
-        }
+        DeviceEntry entry = lookup(vfsId);
+        return entry.devices.Read(entry.deviceId, size); // Perform the read operation
     }
 
     /**
@@ -93,12 +131,178 @@ public class VFS {
      * @return The number of bytes written.
      */
     public static int Write(int vfsId, byte[] data) {
-        DeviceEntry entry = deviceMap.get(vfsId);
-        if (entry != null) {
-            return entry.devices.Write(entry.deviceId, data); // Perform the write operation
-        } else {
-            throw new IllegalArgumentException("Invalid VFS ID: " + vfsId);
+        DeviceEntry entry = lookup(vfsId);
+        return entry.devices.Write(entry.deviceId, data); // Perform the write operation
+    }
+
+    /**
+     * Reads into a caller-supplied buffer without allocating.
+     *
+     * @param vfsId The VFS ID of the devices to read from.
+     * @param destination Buffer filled from its position up to its limit.
+     * @return The number of bytes read, or -1 at end of data.
+     */
+    public static int Read(int vfsId, ByteBuffer destination) {
+        DeviceEntry entry = lookup(vfsId);
+        return entry.devices.Read(entry.deviceId, destination);
+    }
+
+    /**
+     * Writes from a caller-supplied buffer without copying it to an array first.
+     *
+     * @param vfsId The VFS ID of the devices to write to.
+     * @param source Buffer drained from its position up to its limit.
+     * @return The number of bytes written, or -1 on error.
+     */
+    public static int Write(int vfsId, ByteBuffer source) {
+        DeviceEntry entry = lookup(vfsId);
+        return entry.devices.Write(entry.deviceId, source);
+    }
+
+    /**
+     * Scatter read into several buffers in one call.
+     *
+     * @param vfsId The VFS ID of the devices to read from.
+     * @param destinations Buffers filled in order.
+     * @return The total number of bytes read, or -1 at end of data.
+     */
+    public static long ReadV(int vfsId, ByteBuffer[] destinations) {
+        DeviceEntry entry = lookup(vfsId);
+        return entry.devices.ReadV(entry.deviceId, destinations);
+    }
+
+    /**
+     * Gather write from several buffers in one call.
+     *
+     * @param vfsId The VFS ID of the devices to write to.
+     * @param sources Buffers drained in order.
+     * @return The total number of bytes written, or -1 on error.
+     */
+    public static long WriteV(int vfsId, ByteBuffer[] sources) {
+        DeviceEntry entry = lookup(vfsId);
+        return entry.devices.WriteV(entry.deviceId, sources);
+    }
+
+    /**
+     * Reads from an absolute position without moving the handle's offset.
+     * Devices without positional support fall back to a seek and read.
+     *
+     * @param vfsId The VFS ID of the devices to read from.
+     * @param destination Buffer filled from its position up to its limit.
+     * @param position The absolute position to read from.
+     * @return The number of bytes read, or -1 at end of data.
+     */
+    public static int ReadAt(int vfsId, ByteBuffer destination, long position) {
+        DeviceEntry entry = lookup(vfsId);
+        if (entry.devices instanceof PositionalDevices positional) {
+            return positional.ReadAt(entry.deviceId, destination, position);
+        }
+        synchronized (entry) {
+            entry.devices.Seek(entry.deviceId, Math.toIntExact(position));
+            byte[] data = entry.devices.Read(entry.deviceId, destination.remaining());
+            if (data == null || data.length == 0) {
+                return -1;
+            }
+            int count = Math.min(data.length, destination.remaining());
+            destination.put(data, 0, count);
+            return count;
+        }
+    }
+
+    /**
+     * Writes at an absolute position without moving the handle's offset.
+     * Devices without positional support fall back to a seek and write.
+     *
+     * @param vfsId The VFS ID of the devices to write to.
+     * @param source Buffer drained from its position up to its limit.
+     * @param position The absolute position to write at.
+     * @return The number of bytes written, or -1 on error.
+     */
+    public static int WriteAt(int vfsId, ByteBuffer source, long position) {
+        DeviceEntry entry = lookup(vfsId);
+        if (entry.devices instanceof PositionalDevices positional) {
+            return positional.WriteAt(entry.deviceId, source, position);
         }
+        synchronized (entry) {
+            byte[] data = new byte[source.remaining()];
+            source.get(data);
+            entry.devices.Seek(entry.deviceId, Math.toIntExact(position));
+            return entry.devices.Write(entry.deviceId, data);
+        }
+    }
+
+    /**
+     * Reports whether the device behind the VFS ID can be read without blocking.
+     *
+     * @param vfsId The VFS ID of the device to check.
+     * @return true if a read would not block; false if it would, or if the ID is not open.
+     */
+    public static boolean IsReadable(int vfsId) {
+        // Pollers may hold an ID that was closed since; treat it as never ready rather than failing the poll
+        DeviceEntry[] table = openFiles;
+        DeviceEntry entry = vfsId >= 0 && vfsId < table.length ? table[vfsId] : null;
+        return entry != null && entry.devices.IsReadable(entry.deviceId);
+    }
+
+    /**
+     * Copies the open-file table.
+     *
+     * @return the driver and driver-local ID of every open device, keyed by VFS ID in ascending order
+     */
+    public static synchronized Map<Integer, Map.Entry<Devices, Integer>> getOpenDevices() {
+        Map<Integer, Map.Entry<Devices, Integer>> open = new TreeMap<>();
+        for (int vfsId = 0; vfsId < highWaterMark; vfsId++) {
+            DeviceEntry entry = openFiles[vfsId];
+            if (entry != null) {
+                open.put(vfsId, Map.entry(entry.devices, entry.deviceId));
+            }
+        }
+        return open;
+    }
+
+    /**
+     * Returns the driver behind a VFS ID, so callers can cache the resolution.
+     *
+     * @param vfsId The VFS ID of an open device.
+     * @return The shared driver instance.
+     */
+    public static Devices getDevices(int vfsId) {
+        return lookup(vfsId).devices;
+    }
+
+    /**
+     * Returns the driver-local ID behind a VFS ID.
+     *
+     * @param vfsId The VFS ID of an open device.
+     * @return The ID to pass to the driver returned by {@link #getDevices}.
+     */
+    public static int getDeviceId(int vfsId) {
+        return lookup(vfsId).deviceId;
+    }
+
+    /**
+     * Flushes buffered writes for the device behind the VFS ID (fsync).
+     *
+     * @param vfsId The VFS ID of the devices to sync.
+     */
+    public static void Sync(int vfsId) {
+        DeviceEntry entry = lookup(vfsId);
+        entry.devices.Sync(entry.deviceId);
+    }
+
+    public static BlockCache getBlockCache() {
+        return blockCache;
+    }
+
+    public static WaitQueue getReadinessQueue() {
+        return readinessQueue;
+    }
+
+    /**
+     * Wakes processes polling device handles. Devices call this when they become readable.
+     */
+    public static void notifyReadiness() {
+        readinessQueue.wakeAll();
     }
 
     /**
@@ -107,12 +311,8 @@ public class VFS {
      * @param vfsId The VFS ID of the devices to seek in.
      * @param to The position to seek to.
      */
-    public void Seek(int vfsId, int to) {
-        DeviceEntry entry = deviceMap.get(vfsId);
-        if (entry != null) {
-            entry.devices.Seek(entry.deviceId, to); // Perform the seek operation
-        } else {
-            throw new IllegalArgumentException("Invalid VFS ID: " + vfsId);
-        }
+    public static void Seek(int vfsId, int to) {
+        DeviceEntry entry = lookup(vfsId);
+        entry.devices.Seek(entry.deviceId, to); // Perform the seek operation
     }
 }
@@ -0,0 +1,70 @@
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulated time for running scenarios faster than real time. The clock
+ * only moves when the kernel advances it: by a quantum per context switch,
+ * by the simulated work processes report, and by jumping straight to the
+ * next timer when every process is asleep. Copies made with
+ * {@link #withZone} share the same time.
+ */
+public class VirtualClock extends Clock {
+
+    private final AtomicLong nanos;
+    private final ZoneId zone;
+
+    /**
+     * @param startMillis epoch milliseconds the simulation starts at
+     */
+    public VirtualClock(long startMillis, ZoneId zone) {
+        this(new AtomicLong(startMillis * 1_000_000L), zone);
+    }
+
+    private VirtualClock(AtomicLong nanos, ZoneId zone) {
+        this.nanos = nanos;
+        this.zone = zone;
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new VirtualClock(nanos, zone);
+    }
+
+    @Override
+    public Instant instant() {
+        long now = nanos.get();
+        return Instant.ofEpochSecond(Math.floorDiv(now, 1_000_000_000L), Math.floorMod(now, 1_000_000_000L));
+    }
+
+    @Override
+    public long millis() {
+        return nanos.get() / 1_000_000L;
+    }
+
+    /**
+     * @return simulated nanoseconds since the epoch
+     */
+    public long nanoTime() {
+        return nanos.get();
+    }
+
+    public void advance(long nanoseconds) {
+        if (nanoseconds > 0) {
+            nanos.addAndGet(nanoseconds);
+        }
+    }
+
+    /**
+     * Moves the clock forward to the given time; never moves it back.
+     */
+    public void advanceTo(long epochMillis) {
+        nanos.accumulateAndGet(epochMillis * 1_000_000L, Math::max);
+    }
+}
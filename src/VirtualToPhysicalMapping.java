@@ -6,11 +6,28 @@ public class VirtualToPhysicalMapping {
     public int physicalPageNumber;
     public int onDiskPageNumber;
     public boolean isInitialized;
+    public boolean allocated;
+    public boolean dirty;
+    public MappedFile mappedFile;
+    public int ownerPid;
+    public boolean pinned;
+    // Temporary pins, such as a futex with waiters; the page is not evicted while positive
+    public int pinCount;
+    public int pageSpan;
+    public int virtualBasePage;
 
     public VirtualToPhysicalMapping() {
         this.physicalPageNumber = -1;
         this.onDiskPageNumber = -1;
         this.isInitialized = false;
+        this.allocated = false;
+        this.dirty = false;
+        this.mappedFile = null;
+        this.ownerPid = -1;
+        this.pinned = false;
+        this.pinCount = 0;
+        this.pageSpan = 1;
+        this.virtualBasePage = -1;
     }
 
     public int getPhysicalPageNumber() {
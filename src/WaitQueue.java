@@ -0,0 +1,227 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * A kernel wait queue. Blocked threads park instead of spinning and are
+ * unparked exactly once by a matching wake call or when their timeout expires.
+ * <p>
+ * Inside a blocking system call the kernel installs a {@link Blocker} for the
+ * calling process, so the process gives up the CPU while it waits and is put
+ * back on a run queue when woken. Timeouts are measured on the kernel clock.
+ */
+public class WaitQueue {
+
+    /**
+     * Takes a waiting process off the CPU instead of parking its thread.
+     */
+    public interface Blocker {
+        /**
+         * Gives up the CPU until {@link #wake} is called or the deadline passes.
+         *
+         * @param stillBlocked re-checked once the process is marked waiting; false returns at once
+         * @param deadlineNanos kernel clock deadline, or Long.MAX_VALUE to wait forever
+         */
+        void block(BooleanSupplier stillBlocked, long deadlineNanos);
+
+        /**
+         * Makes the blocked process runnable again.
+         */
+        void wake();
+    }
+
+    private static final ThreadLocal<Blocker> currentBlocker = new ThreadLocal<>();
+
+    private static final class Waiter {
+        final Thread thread = Thread.currentThread();
+        final Blocker blocker = currentBlocker.get();
+        final AtomicBoolean woken = new AtomicBoolean(false);
+
+        void park(Object queue, long deadline) {
+            if (blocker != null) {
+                blocker.block(() -> !woken.get(), deadline);
+            } else if (deadline == Long.MAX_VALUE) {
+                LockSupport.park(queue);
+            } else {
+                LockSupport.parkNanos(queue, deadline - Kernel.nanoTime());
+            }
+        }
+
+        void unpark() {
+            if (blocker != null) {
+                blocker.wake();
+            } else {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Runs a call with waits on the current thread going through the blocker.
+     *
+     * @param blocker deschedules the calling process while it waits
+     * @param call the blocking call
+     * @return the call's result
+     */
+    public static <T> T withBlocker(Blocker blocker, Supplier<T> call) {
+        Blocker previous = currentBlocker.get();
+        currentBlocker.set(blocker);
+        try {
+            return call.get();
+        } finally {
+            currentBlocker.set(previous);
+        }
+    }
+
+    /**
+     * Blocks until the condition holds. The condition is re-checked after
+     * registering so a wake-up racing with the first check is never lost.
+     *
+     * @param condition the state being waited for
+     */
+    public void await(BooleanSupplier condition) {
+        await(condition, -1);
+    }
+
+    /**
+     * Blocks until the condition holds or the timeout expires.
+     *
+     * @param condition the state being waited for
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return true if the condition holds, false on timeout or interrupt
+     */
+    public boolean await(BooleanSupplier condition, long timeoutMillis) {
+        return awaitAny(condition, timeoutMillis, this);
+    }
+
+    /**
+     * Blocks on several wait queues at once until the condition holds or the
+     * timeout expires. A wake-up on any of the queues re-checks the condition.
+     *
+     * @param condition the state being waited for
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @param queues the queues whose wake-ups may make the condition true
+     * @return true if the condition holds, false on timeout or interrupt
+     */
+    public static boolean awaitAny(BooleanSupplier condition, long timeoutMillis, WaitQueue... queues) {
+        long deadline = deadlineOf(timeoutMillis);
+        while (!condition.getAsBoolean()) {
+            Waiter waiter = new Waiter();
+            for (WaitQueue queue : queues) {
+                queue.waiters.offer(waiter);
+            }
+            if (condition.getAsBoolean()) {
+                cancel(waiter, queues);
+                return true;
+            }
+            while (!waiter.woken.get()) {
+                if (deadline != Long.MAX_VALUE && deadline - Kernel.nanoTime() <= 0) {
+                    break;
+                }
+                waiter.park(queues[0], deadline);
+                if (Thread.currentThread().isInterrupted()) {
+                    cancel(waiter, queues);
+                    return condition.getAsBoolean();
+                }
+            }
+            if (!waiter.woken.get()) {
+                cancel(waiter, queues);
+                return condition.getAsBoolean();
+            }
+            for (WaitQueue queue : queues) {
+                queue.waiters.remove(waiter);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sleeps until explicitly woken, unless the caller is no longer blocked
+     * once registered. Unlike {@link #await}, a wake-up ends the wait even
+     * if the state has changed back since, which is what futexes need.
+     *
+     * @param stillBlocked re-checked after registering; false aborts the sleep
+     * @param timeoutMillis maximum time to wait, or a negative value to wait forever
+     * @return true if a wake call ended the sleep
+     */
+    public boolean awaitWakeup(BooleanSupplier stillBlocked, long timeoutMillis) {
+        long deadline = deadlineOf(timeoutMillis);
+        Waiter waiter = new Waiter();
+        waiters.offer(waiter);
+        if (!stillBlocked.getAsBoolean()) {
+            cancel(waiter, this);
+            return false;
+        }
+        while (!waiter.woken.get()) {
+            if (deadline != Long.MAX_VALUE && deadline - Kernel.nanoTime() <= 0) {
+                break;
+            }
+            waiter.park(this, deadline);
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+        }
+        if (waiter.woken.compareAndSet(false, true)) {
+            waiters.remove(waiter); // Timed out or interrupted before anyone woke us
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Wakes the longest waiting thread, if any.
+     *
+     * @return true if a thread was woken
+     */
+    public boolean wakeOne() {
+        return wake(1) == 1;
+    }
+
+    /**
+     * Wakes up to {@code count} waiting threads in FIFO order.
+     *
+     * @param count the maximum number of threads to wake
+     * @return the number of threads woken
+     */
+    public int wake(int count) {
+        int woken = 0;
+        while (woken < count) {
+            Waiter waiter = waiters.poll();
+            if (waiter == null) {
+                break;
+            }
+            if (waiter.woken.compareAndSet(false, true)) {
+                waiter.unpark();
+                woken++;
+            }
+        }
+        return woken;
+    }
+
+    public int wakeAll() {
+        return wake(Integer.MAX_VALUE);
+    }
+
+    public boolean hasWaiters() {
+        return !waiters.isEmpty();
+    }
+
+    private static long deadlineOf(long timeoutMillis) {
+        return timeoutMillis < 0 ? Long.MAX_VALUE : Kernel.nanoTime() + timeoutMillis * 1_000_000L;
+    }
+
+    private static void cancel(Waiter waiter, WaitQueue... queues) {
+        boolean claimed = !waiter.woken.compareAndSet(false, true);
+        for (WaitQueue queue : queues) {
+            queue.waiters.remove(waiter);
+            // If a waker claimed us concurrently, pass the wake-up on so it is not lost
+            if (claimed) {
+                queue.wakeOne();
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Base class for synthetic load. Runs one operation at a time at a target
+ * rate until the deadline, yielding the CPU after each operation.
+ * <p>
+ * Operations are scheduled open-loop: each has an intended start time on a
+ * fixed grid, and the gap between that time and when the process actually
+ * got the CPU is recorded as scheduling latency. A process that falls behind
+ * keeps accumulating latency instead of silently lowering its rate; whatever
+ * it has not started by the deadline is dropped.
+ */
+public abstract class WorkloadProcess extends UserlandProcess {
+
+    private final String kind;
+    private final int ratePerSecond;
+    private final long deadlineNanos;
+    private final CountDownLatch finished;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private volatile long operations = 0;
+    private volatile long finishedAt = -1;
+    private volatile int pid = -1;
+
+    protected WorkloadProcess(String kind, int ratePerSecond, long deadlineNanos, CountDownLatch finished) {
+        this.kind = kind;
+        this.ratePerSecond = ratePerSecond;
+        this.deadlineNanos = deadlineNanos;
+        this.finished = finished;
+    }
+
+    @Override
+    public void main() throws Exception {
+        pid = OS.getPid();
+        setUp();
+        long interval = 1_000_000_000L / Math.max(1, ratePerSecond);
+        long next = Kernel.nanoTime();
+        try {
+            // Operations still unstarted at the deadline are dropped, so an overloaded run ends on time
+            while (next < deadlineNanos && Kernel.nanoTime() < deadlineNanos) {
+                long wait = next - Kernel.nanoTime();
+                if (wait >= 1_000_000L) {
+                    OS.sleep((int) (wait / 1_000_000L));
+                }
+                long start = Kernel.nanoTime();
+                latencies.record(Math.max(0, start - next));
+                operate();
+                operations++;
+                next += interval;
+                OS.switchProcess();
+            }
+        } finally {
+            tearDown();
+            finishedAt = Kernel.nanoTime();
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Called once on the process's own thread before the first operation.
+     */
+    protected void setUp() throws Exception {
+    }
+
+    /**
+     * Performs one unit of work.
+     */
+    protected abstract void operate() throws Exception;
+
+    /**
+     * Called once after the last operation.
+     */
+    protected void tearDown() throws Exception {
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public int getProcessId() {
+        return pid;
+    }
+
+    public long getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return kernel clock reading when the last operation completed, or -1 while running
+     */
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public LatencyRecorder getLatencies() {
+        return latencies;
+    }
+}